@@ -17,6 +17,8 @@
 
 package org.apache.commons.lang3.reflect;
 
+import org.apache.commons.lang3.ClassUtils;
+
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 
@@ -28,4 +30,69 @@ public class MemberUtilsX {
     public static int compareMethodFit(final Method left, final Method right, final Class<?>[] actual) {
         return MemberUtils.compareMethodFit(left, right, actual);
     }
+
+    private static final Class<?>[] ORDERED_PRIMITIVE_TYPES = {Byte.TYPE, Short.TYPE,
+            Character.TYPE, Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE};
+
+    /**
+     * The cost of passing an argument of class {@code actual} to one parameter of a method with as
+     * many parameters as arguments. Summed up in order over all parameters it gives the total cost
+     * {@link #compareMethodFit} and {@link #compareConstructorFit} compare, which lets callers
+     * cache it per parameter. {@code varArgs} is whether this is the variable arity parameter.
+     */
+    public static float getParameterTransformationCost(final Class<?> actual, final Class<?> parameterType, final boolean varArgs) {
+        if (!varArgs) {
+            return getObjectTransformationCost(actual, parameterType);
+        }
+        final float varArgsCost = 0.001f;
+        final Class<?> destClass = parameterType.getComponentType();
+        if (actual != null && actual.isArray()) {
+            return getObjectTransformationCost(actual.getComponentType(), destClass) + varArgsCost;
+        }
+        return getObjectTransformationCost(actual, destClass) + varArgsCost;
+    }
+
+    // Same as MemberUtils.getObjectTransformationCost, which is private
+    private static float getObjectTransformationCost(Class<?> srcClass, final Class<?> destClass) {
+        if (destClass.isPrimitive()) {
+            return getPrimitivePromotionCost(srcClass, destClass);
+        }
+        float cost = 0.0f;
+        while (srcClass != null && !destClass.equals(srcClass)) {
+            if (destClass.isInterface() && ClassUtils.isAssignable(srcClass, destClass)) {
+                // slight penalty for interface match.
+                cost += 0.25f;
+                break;
+            }
+            cost++;
+            srcClass = srcClass.getSuperclass();
+        }
+        if (srcClass == null) {
+            cost += 1.5f;
+        }
+        return cost;
+    }
+
+    // Same as MemberUtils.getPrimitivePromotionCost, which is private
+    private static float getPrimitivePromotionCost(final Class<?> srcClass, final Class<?> destClass) {
+        if (srcClass == null) {
+            return 1.5f;
+        }
+        float cost = 0.0f;
+        Class<?> cls = srcClass;
+        if (!cls.isPrimitive()) {
+            // slight unwrapping penalty
+            cost += 0.1f;
+            cls = ClassUtils.wrapperToPrimitive(cls);
+        }
+        for (int i = 0; cls != destClass && i < ORDERED_PRIMITIVE_TYPES.length; i++) {
+            if (cls == ORDERED_PRIMITIVE_TYPES[i]) {
+                cost += 0.1f;
+                if (i < ORDERED_PRIMITIVE_TYPES.length - 1) {
+                    cls = ORDERED_PRIMITIVE_TYPES[i + 1];
+                }
+            }
+        }
+        return cost;
+    }
 }
@@ -197,6 +197,84 @@ public class ConfigManager {
         }
     }
 
+    public static boolean isHookMetricsEnabled() {
+        try {
+            return LSPManagerServiceHolder.getService().isHookMetricsEnabled();
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static boolean setHookMetrics(boolean enabled) {
+        try {
+            LSPManagerServiceHolder.getService().setHookMetrics(enabled);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static boolean getHookMetrics(ParcelFileDescriptor fd) {
+        try {
+            LSPManagerServiceHolder.getService().getHookMetrics(fd);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static int getHookSamplingInterval() {
+        try {
+            return LSPManagerServiceHolder.getService().getHookSamplingInterval();
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return 0;
+        }
+    }
+
+    public static boolean setHookSamplingInterval(int interval) {
+        try {
+            LSPManagerServiceHolder.getService().setHookSamplingInterval(interval);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static boolean getHookSamples(ParcelFileDescriptor fd, boolean cpu) {
+        try {
+            LSPManagerServiceHolder.getService().getHookSamples(fd, cpu);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static boolean getStartupTimelines(ParcelFileDescriptor fd) {
+        try {
+            LSPManagerServiceHolder.getService().getStartupTimelines(fd);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
+    public static boolean getQueryPlans(ParcelFileDescriptor fd) {
+        try {
+            LSPManagerServiceHolder.getService().getQueryPlans(fd);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(App.TAG, Log.getStackTraceString(e));
+            return false;
+        }
+    }
+
     public static ParcelFileDescriptor getLog(boolean verbose) {
         try {
             return verbose ? LSPManagerServiceHolder.getService().getVerboseLog() : LSPManagerServiceHolder.getService().getModulesLog();
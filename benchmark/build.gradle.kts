@@ -0,0 +1,81 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+val androidSourceCompatibility: JavaVersion by rootProject.extra
+val androidTargetCompatibility: JavaVersion by rootProject.extra
+
+plugins {
+    id("java-library")
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = androidSourceCompatibility
+    targetCompatibility = androidTargetCompatibility
+    sourceSets {
+        main {
+            java.srcDirs("src/main/java", "local")
+        }
+    }
+}
+
+// The dispatching code is compiled from core as is, everything it needs from ART, lsplant or
+// the framework is replaced by the host implementations in src/main/java
+val coreSrc = "../core/src/main/java"
+val localDir = "local"
+
+tasks.register<Copy>("CoreSources") {
+    from(coreSrc)
+    include(
+        "org/lsposed/lspd/impl/LSPosedBridge.java",
+        "org/lsposed/lspd/impl/LSPosedHookCallback.java",
+        "org/lsposed/lspd/impl/HookMetrics.java",
+        "org/lsposed/lspd/impl/HookSampler.java",
+        "org/lsposed/lspd/impl/DeferredHooks.java",
+        "org/lsposed/lspd/util/ClassCache.java",
+        "org/lsposed/lspd/util/ClassMembers.java",
+        "org/lsposed/lspd/util/FieldAccessor.java",
+        "org/lsposed/lspd/util/FrameworkIndex.java",
+        "org/lsposed/lspd/util/WeakIdentityMap.java",
+        "de/robv/android/xposed/IXposedHookZygoteInit.java",
+        "de/robv/android/xposed/IXposedMod.java",
+        "de/robv/android/xposed/XC_MethodHook.java",
+        "de/robv/android/xposed/XC_MethodReplacement.java",
+        "de/robv/android/xposed/XposedBridge.java",
+        "de/robv/android/xposed/XposedHelpers.java",
+        "de/robv/android/xposed/callbacks/IXUnhook.java",
+        "de/robv/android/xposed/callbacks/XC_LayoutInflated.java",
+        "de/robv/android/xposed/callbacks/XCallback.java",
+    )
+    into(localDir)
+}
+
+tasks.compileJava {
+    dependsOn("CoreSources")
+}
+
+jmh {
+    profilers.add("gc")
+}
+
+dependencies {
+    implementation(zipTree("../libs/xposed/Xposed-api.aar").matching { include("classes.jar") })
+    implementation(projects.apache)
+    compileOnly(libs.androidx.annotation)
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.lsposed.lspd.util.WeakIdentityMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures XposedHelpers additional instance fields from several threads tagging a shared set of
+ * objects. synchronized is the former WeakHashMap behind a global lock, weakIdentity the current
+ * WeakIdentityMap with a ConcurrentHashMap per object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AdditionalFieldsBenchmark {
+    private static final int OBJECTS = 1024;
+
+    @Param({"synchronized", "weakIdentity"})
+    public String impl;
+
+    private Fields fields;
+    private Object[] objects;
+
+    private interface Fields {
+        Object set(Object obj, String key, Object value);
+
+        Object get(Object obj, String key);
+    }
+
+    private static final class SynchronizedFields implements Fields {
+        private final WeakHashMap<Object, HashMap<String, Object>> additionalFields = new WeakHashMap<>();
+
+        @Override
+        public Object set(Object obj, String key, Object value) {
+            HashMap<String, Object> objectFields;
+            synchronized (additionalFields) {
+                objectFields = additionalFields.get(obj);
+                if (objectFields == null) {
+                    objectFields = new HashMap<>();
+                    additionalFields.put(obj, objectFields);
+                }
+            }
+            synchronized (objectFields) {
+                return objectFields.put(key, value);
+            }
+        }
+
+        @Override
+        public Object get(Object obj, String key) {
+            HashMap<String, Object> objectFields;
+            synchronized (additionalFields) {
+                objectFields = additionalFields.get(obj);
+                if (objectFields == null)
+                    return null;
+            }
+            synchronized (objectFields) {
+                return objectFields.get(key);
+            }
+        }
+    }
+
+    private static final class WeakIdentityFields implements Fields {
+        private final WeakIdentityMap<Object, ConcurrentHashMap<String, Object>> additionalFields = new WeakIdentityMap<>();
+
+        @Override
+        public Object set(Object obj, String key, Object value) {
+            var objectFields = additionalFields.computeIfAbsent(obj, o -> new ConcurrentHashMap<>(4));
+            return value != null ? objectFields.put(key, value) : objectFields.remove(key);
+        }
+
+        @Override
+        public Object get(Object obj, String key) {
+            var objectFields = additionalFields.get(obj);
+            return objectFields != null ? objectFields.get(key) : null;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = System.identityHashCode(this);
+        }
+
+        int next() {
+            // cheap LCG, spreads the threads over the objects
+            next = next * 1103515245 + 12345;
+            return (next >>> 16) & (OBJECTS - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fields = impl.equals("synchronized") ? new SynchronizedFields() : new WeakIdentityFields();
+        objects = new Object[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            objects[i] = new Object();
+            fields.set(objects[i], "tag", i);
+        }
+    }
+
+    @Benchmark
+    public Object get(Cursor cursor) {
+        return fields.get(objects[cursor.next()], "tag");
+    }
+
+    @Benchmark
+    public Object set(Cursor cursor) {
+        var index = cursor.next();
+        return fields.set(objects[index], "tag", index);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.apache.commons.lang3.ClassUtilsX;
+import org.apache.commons.lang3.reflect.MemberUtilsX;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Measures XposedHelpers.callMethod on an object deep in a View-like hierarchy, with the argument
+ * classes changing on every call like at a polymorphic call site. pairwise is the former lookup,
+ * an exact lookup failing with an exception followed by a global cache of best matches that were
+ * found by comparing candidates pairwise. index is the current overload index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallMethodBenchmark {
+    @Param({"pairwise", "index"})
+    public String impl;
+
+    private final Object target = new Level7();
+    private final Object[][] args = {
+            {1},
+            {"text"},
+            {new StringBuilder()},
+            {2L, "text"},
+    };
+    private int next;
+
+    @SuppressWarnings("unused")
+    public static class Level0 {
+        public void set(int value) {
+        }
+
+        public void set(long value) {
+        }
+
+        public void set(Object value) {
+        }
+
+        public void set(CharSequence value) {
+        }
+
+        public void set(Number value, CharSequence text) {
+        }
+
+        public void set(Object value, Object text) {
+        }
+    }
+
+    public static class Level1 extends Level0 {
+    }
+
+    @SuppressWarnings("unused")
+    public static class Level2 extends Level1 {
+        @Override
+        public void set(Object value) {
+        }
+
+        public void set(Object[] values) {
+        }
+    }
+
+    public static class Level3 extends Level2 {
+    }
+
+    @SuppressWarnings("unused")
+    public static class Level4 extends Level3 {
+        public void set(StringBuilder value) {
+        }
+
+        private void set(String value) {
+        }
+    }
+
+    public static class Level5 extends Level4 {
+    }
+
+    @SuppressWarnings("unused")
+    public static class Level6 extends Level5 {
+        @Override
+        public void set(CharSequence value) {
+        }
+    }
+
+    public static class Level7 extends Level6 {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        for (var arguments : args) {
+            var expected = Pairwise.findMethodBestMatch(target.getClass(), "set", XposedHelpers.getParameterTypes(arguments));
+            var actual = XposedHelpers.findMethodBestMatch(target.getClass(), "set", arguments);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException(expected + " != " + actual);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object callMethod() throws Throwable {
+        var arguments = args[next++ & 3];
+        if (impl.equals("pairwise")) {
+            return Pairwise.findMethodBestMatch(target.getClass(), "set", XposedHelpers.getParameterTypes(arguments)).invoke(target, arguments);
+        }
+        return XposedHelpers.callMethod(target, "set", arguments);
+    }
+
+    private static final class Pairwise {
+        private static final ConcurrentHashMap<Key, Optional<Method>> methodCache = new ConcurrentHashMap<>();
+
+        private static final class Key {
+            private final Class<?> clazz;
+            private final String name;
+            private final Class<?>[] parameters;
+            private final boolean isExact;
+            private final int hash;
+
+            Key(Class<?> clazz, String name, Class<?>[] parameters, boolean isExact) {
+                this.hash = 31 * Objects.hash(clazz, name, isExact) + Arrays.hashCode(parameters);
+                this.clazz = clazz;
+                this.name = name;
+                this.parameters = parameters;
+                this.isExact = isExact;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (!(o instanceof Key)) return false;
+                Key key = (Key) o;
+                return isExact == key.isExact && Objects.equals(clazz, key.clazz) && Objects.equals(name, key.name) && Arrays.equals(parameters, key.parameters);
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+
+            @Override
+            public String toString() {
+                return clazz.getName() + '#' + name + Arrays.toString(parameters) + (isExact ? "#exact" : "");
+            }
+        }
+
+        static Method findMethodExact(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+            var key = new Key(clazz, methodName, parameterTypes, true);
+            return methodCache.computeIfAbsent(key, k -> {
+                try {
+                    Method method = k.clazz.getDeclaredMethod(k.name, k.parameters);
+                    method.setAccessible(true);
+                    return Optional.of(method);
+                } catch (NoSuchMethodException e) {
+                    return Optional.empty();
+                }
+            }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        }
+
+        static Method findMethodBestMatch(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+            try {
+                return findMethodExact(clazz, methodName, parameterTypes);
+            } catch (NoSuchMethodError ignored) {
+            }
+            var key = new Key(clazz, methodName, parameterTypes, false);
+            return methodCache.computeIfAbsent(key, k -> {
+                Method bestMatch = null;
+                Class<?> clz = k.clazz;
+                boolean considerPrivateMethods = true;
+                do {
+                    for (Method method : clz.getDeclaredMethods()) {
+                        if (!considerPrivateMethods && Modifier.isPrivate(method.getModifiers()))
+                            continue;
+                        if (method.getName().equals(k.name) && ClassUtilsX.isAssignable(k.parameters, method.getParameterTypes(), true)) {
+                            if (bestMatch == null || MemberUtilsX.compareMethodFit(method, bestMatch, k.parameters) < 0) {
+                                bestMatch = method;
+                            }
+                        }
+                    }
+                    considerPrivateMethods = false;
+                } while ((clz = clz.getSuperclass()) != null);
+                if (bestMatch != null) {
+                    bestMatch.setAccessible(true);
+                }
+                return Optional.ofNullable(bestMatch);
+            }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        }
+    }
+}
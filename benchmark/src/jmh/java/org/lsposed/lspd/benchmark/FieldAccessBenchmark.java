@@ -0,0 +1,86 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.lsposed.lspd.util.FieldAccessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Measures XposedHelpers instance field accessors on an inherited field. reflective keeps every
+ * access on {@link java.lang.reflect.Field} by never reaching the threshold, direct switches to
+ * resolved offsets after the first access.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessBenchmark {
+    @Param({"reflective", "direct"})
+    public String impl;
+
+    private Target target;
+
+    public static class Base {
+        private int count;
+        private Object tag;
+    }
+
+    public static class Target extends Base {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FieldAccessor.setThreshold(impl.equals("direct") ? 1 : Integer.MAX_VALUE);
+        target = new Target();
+        XposedHelpers.setObjectField(target, "tag", "tag");
+    }
+
+    @Benchmark
+    public int getInt() {
+        return XposedHelpers.getIntField(target, "count");
+    }
+
+    @Benchmark
+    public void setInt() {
+        XposedHelpers.setIntField(target, "count", 42);
+    }
+
+    @Benchmark
+    public Object getObject() {
+        return XposedHelpers.getObjectField(target, "tag");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.apache.commons.lang3.ClassUtilsX;
+import org.lsposed.lspd.util.ClassCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures class lookups as XposedHelpers.findClassIfExists does them, for a nested class and for
+ * a nested class that does not exist. uncached parses and delegates on every call, cached is
+ * ClassCache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindClassBenchmark {
+    @Param({"uncached", "cached"})
+    public String impl;
+
+    @Param({"java.util.AbstractMap.SimpleEntry", "java.util.AbstractMap.MissingEntry"})
+    public String className;
+
+    private final ClassLoader classLoader = FindClassBenchmark.class.getClassLoader();
+
+    @Benchmark
+    public Class<?> findClassIfExists() {
+        if (impl.equals("cached")) return ClassCache.findClass(classLoader, className);
+        try {
+            return ClassUtilsX.getClass(classLoader, className, false);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
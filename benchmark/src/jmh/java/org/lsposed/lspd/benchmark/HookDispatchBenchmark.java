@@ -0,0 +1,275 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.lsposed.lspd.impl.LSPosedBridge;
+import org.lsposed.lspd.nativebridge.HookBridge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import io.github.libxposed.api.XposedInterface;
+import io.github.libxposed.api.annotations.AfterInvocation;
+import io.github.libxposed.api.annotations.BeforeInvocation;
+import io.github.libxposed.api.annotations.XposedHooker;
+
+/**
+ * Measures {@link LSPosedBridge.NativeHooker#callback} for stacks of modern and legacy hooks.
+ * Run with {@code ./gradlew :benchmark:jmh}, the gc profiler reports allocated bytes per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HookDispatchBenchmark {
+    private static final RuntimeException FAILURE = new RuntimeException("expected");
+
+    static Object sink;
+
+    @Param({"0", "1", "4", "16"})
+    public int hookers;
+
+    /**
+     * modern: before and after callbacks passing a context;
+     * reflective: modern, with each callback reached through Method.invoke like before hookers
+     * were bound to MethodHandles;
+     * beforeOnly: modern hookers without after callbacks;
+     * alternating: beforeOnly, alternating between hooked methods of different arity;
+     * legacy: XC_MethodHook with before and after;
+     * mixed: alternating modern and legacy hooks with shuffled priorities;
+     * returnEarly: mixed, the middle hook skips the original method;
+     * throwing: mixed, every other hook throws from its before callback.
+     */
+    @Param({"modern", "reflective", "beforeOnly", "alternating", "legacy", "mixed", "returnEarly", "throwing"})
+    public String stack;
+
+    private LSPosedBridge.NativeHooker<?> hooker;
+    private Object[] args;
+    // only for alternating
+    private LSPosedBridge.NativeHooker<?> otherHooker;
+    private Object[] otherArgs;
+    private long fastPathAllocations;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        // a fresh loader per trial gives a method that has never been hooked
+        var targetClass = new TargetLoader(getClass().getClassLoader()).loadClass(Target.class.getName());
+        var method = targetClass.getDeclaredMethod("compute", int.class, String.class);
+        if (hookers == 0) {
+            LSPosedBridge.doHook(method, 0, ObservingHooker.class).unhook();
+        }
+        for (int i = 0; i < hookers; i++) {
+            hook(method, i);
+        }
+        hooker = (LSPosedBridge.NativeHooker<?>) HookBridge.getHooker(method);
+        args = new Object[]{targetClass.getDeclaredConstructor().newInstance(), 1, "tag"};
+        hooker.callback(args);
+        if (stack.equals("alternating") && hookers > 0) {
+            var other = targetClass.getDeclaredMethod("describe", Object.class);
+            for (int i = 0; i < hookers; i++) {
+                hook(other, i);
+            }
+            otherHooker = (LSPosedBridge.NativeHooker<?>) HookBridge.getHooker(other);
+            otherArgs = new Object[]{args[0], "value"};
+            otherHooker.callback(otherArgs);
+        }
+        fastPathAllocations = LSPosedBridge.getFastPathAllocations();
+    }
+
+    private void hook(Method method, int index) {
+        int priority = (index * 37) % 11 - 5;
+        boolean modern = index % 2 == 0;
+        switch (stack) {
+            case "modern":
+                LSPosedBridge.doHook(method, priority, ObservingHooker.class);
+                return;
+            case "reflective":
+                LSPosedBridge.doHook(method, priority, ReflectiveHooker.class);
+                return;
+            case "beforeOnly":
+            case "alternating":
+                LSPosedBridge.doHook(method, priority, BeforeOnlyHooker.class);
+                return;
+            case "legacy":
+                XposedBridge.hookMethod(method, new ObservingHook(priority));
+                return;
+            case "returnEarly":
+                if (index == hookers / 2) {
+                    if (modern) {
+                        LSPosedBridge.doHook(method, priority, SkippingHooker.class);
+                    } else {
+                        XposedBridge.hookMethod(method, new SkippingHook(priority));
+                    }
+                    return;
+                }
+                break;
+            case "throwing":
+                if (index % 4 < 2) {
+                    if (modern) {
+                        LSPosedBridge.doHook(method, priority, ThrowingHooker.class);
+                    } else {
+                        XposedBridge.hookMethod(method, new ThrowingHook(priority));
+                    }
+                    return;
+                }
+                break;
+        }
+        if (modern) {
+            LSPosedBridge.doHook(method, priority, ObservingHooker.class);
+        } else {
+            XposedBridge.hookMethod(method, new ObservingHook(priority));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkFastPathAllocations() {
+        if ((stack.equals("beforeOnly") || stack.equals("alternating"))
+                && LSPosedBridge.getFastPathAllocations() != fastPathAllocations) {
+            throw new IllegalStateException("Before-only dispatch allocated in steady state");
+        }
+    }
+
+    @Benchmark
+    public Object dispatch() throws Throwable {
+        if (otherHooker != null) {
+            sink = otherHooker.callback(otherArgs);
+        }
+        return hooker.callback(args);
+    }
+
+    @XposedHooker
+    public static class ObservingHooker implements XposedInterface.Hooker {
+        @BeforeInvocation
+        public static Object before(XposedInterface.BeforeHookCallback callback) {
+            return callback.getArgs()[0];
+        }
+
+        @AfterInvocation
+        public static void after(XposedInterface.AfterHookCallback callback, Object context) {
+            sink = context;
+        }
+    }
+
+    // Pays what HookerCallback did per call with Method.invoke: access checks, the varargs array
+    // and InvocationTargetException wrapping, on top of the direct call to this trampoline
+    @XposedHooker
+    public static class ReflectiveHooker implements XposedInterface.Hooker {
+        private static final Method BEFORE;
+        private static final Method AFTER;
+
+        static {
+            try {
+                BEFORE = ObservingHooker.class.getMethod("before", XposedInterface.BeforeHookCallback.class);
+                AFTER = ObservingHooker.class.getMethod("after", XposedInterface.AfterHookCallback.class, Object.class);
+            } catch (NoSuchMethodException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @BeforeInvocation
+        public static Object before(XposedInterface.BeforeHookCallback callback) throws ReflectiveOperationException {
+            return BEFORE.invoke(null, callback);
+        }
+
+        @AfterInvocation
+        public static void after(XposedInterface.AfterHookCallback callback, Object context) throws ReflectiveOperationException {
+            AFTER.invoke(null, callback, context);
+        }
+    }
+
+    @XposedHooker
+    public static class BeforeOnlyHooker implements XposedInterface.Hooker {
+        @BeforeInvocation
+        public static void before(XposedInterface.BeforeHookCallback callback) {
+            sink = callback.getArgs()[0];
+        }
+    }
+
+    @XposedHooker
+    public static class SkippingHooker implements XposedInterface.Hooker {
+        @BeforeInvocation
+        public static void before(XposedInterface.BeforeHookCallback callback) {
+            callback.returnAndSkip(42);
+        }
+    }
+
+    @XposedHooker
+    public static class ThrowingHooker implements XposedInterface.Hooker {
+        @BeforeInvocation
+        public static void before(XposedInterface.BeforeHookCallback callback) {
+            throw FAILURE;
+        }
+    }
+
+    static class ObservingHook extends XC_MethodHook {
+        ObservingHook(int priority) {
+            super(priority);
+        }
+
+        @Override
+        protected void beforeHookedMethod(MethodHookParam<?> param) {
+            sink = param.args[0];
+        }
+
+        @Override
+        protected void afterHookedMethod(MethodHookParam<?> param) {
+            sink = param.getResult();
+        }
+    }
+
+    static class SkippingHook extends XC_MethodHook {
+        SkippingHook(int priority) {
+            super(priority);
+        }
+
+        @Override
+        protected void beforeHookedMethod(MethodHookParam<?> param) {
+            param.setResult(42);
+        }
+    }
+
+    static class ThrowingHook extends XC_MethodHook {
+        ThrowingHook(int priority) {
+            super(priority);
+        }
+
+        @Override
+        protected void beforeHookedMethod(MethodHookParam<?> param) {
+            throw FAILURE;
+        }
+    }
+}
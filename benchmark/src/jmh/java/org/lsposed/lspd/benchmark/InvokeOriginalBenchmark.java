@@ -0,0 +1,122 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.benchmark;
+
+import org.lsposed.lspd.impl.LSPosedBridge;
+import org.lsposed.lspd.nativebridge.HookBridge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import io.github.libxposed.api.XposedInterface;
+import io.github.libxposed.api.annotations.BeforeInvocation;
+import io.github.libxposed.api.annotations.XposedHooker;
+
+/**
+ * Measures calling the original method of a hook with six arguments, either all primitives or all
+ * objects. reflective is the former Method.invoke path including the unwrapping of its
+ * InvocationTargetException, direct is HookBridge.invokeOriginal and dispatch a whole call of the
+ * method hooked by a single before callback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokeOriginalBenchmark {
+    @Param({"primitives", "objects"})
+    public String signature;
+
+    private Method method;
+    private char[] shorty;
+    private Class<?>[] parameterTypes;
+    private Object thisObject;
+    private Object[] args;
+    private Object[] hookerArgs;
+    private LSPosedBridge.NativeHooker<?> hooker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        var targetClass = new TargetLoader(getClass().getClassLoader()).loadClass(Target.class.getName());
+        if (signature.equals("primitives")) {
+            method = targetClass.getDeclaredMethod("mix", int.class, long.class, double.class, float.class, boolean.class, char.class);
+            args = new Object[]{1, 2L, 3.0, 4.0f, true, 'c'};
+        } else {
+            method = targetClass.getDeclaredMethod("pick", Object.class, Object.class, Object.class, Object.class, Object.class, Object.class);
+            args = new Object[]{"a", "b", "c", "d", "e", "f"};
+        }
+        shorty = new char[method.getParameterCount() + 1];
+        shorty[0] = signature.equals("primitives") ? 'J' : 'L';
+        for (int i = 1; i < shorty.length; i++) {
+            shorty[i] = signature.equals("primitives") ? "IJDFZC".charAt(i - 1) : 'L';
+        }
+        parameterTypes = method.getParameterTypes();
+        thisObject = targetClass.getDeclaredConstructor().newInstance();
+        LSPosedBridge.doHook(method, 0, CountingHooker.class);
+        hooker = (LSPosedBridge.NativeHooker<?>) HookBridge.getHooker(method);
+        hookerArgs = new Object[args.length + 1];
+        hookerArgs[0] = thisObject;
+        System.arraycopy(args, 0, hookerArgs, 1, args.length);
+    }
+
+    @Benchmark
+    public Object reflective() throws Throwable {
+        try {
+            return HookBridge.invokeOriginalMethod(method, thisObject, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Benchmark
+    public Object direct() throws Throwable {
+        return HookBridge.invokeOriginal(method, shorty, parameterTypes, thisObject, args);
+    }
+
+    @Benchmark
+    public Object dispatch() throws Throwable {
+        return hooker.callback(hookerArgs);
+    }
+
+    @XposedHooker
+    public static class CountingHooker implements XposedInterface.Hooker {
+        static long calls;
+
+        @BeforeInvocation
+        public static void before(XposedInterface.BeforeHookCallback callback) {
+            calls++;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import de.robv.android.xposed.XposedBridge.CopyOnWriteSortedSet;
+import de.robv.android.xposed.callbacks.XC_LayoutInflated;
+
+/**
+ * Measures registering and removing a batch of layout callbacks, as a module hooking many layouts
+ * of one resource at startup does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutCallbacksBenchmark {
+    @Param({"16", "128", "512"})
+    public int callbacks;
+
+    private XC_LayoutInflated[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batch = new XC_LayoutInflated[callbacks];
+        for (int i = 0; i < callbacks; i++) {
+            batch[i] = new Callback((i * 37) % 11 - 5);
+        }
+    }
+
+    @Benchmark
+    public Object[] register() {
+        var set = new CopyOnWriteSortedSet<XC_LayoutInflated>();
+        for (var callback : batch) {
+            set.add(callback);
+        }
+        return set.getSnapshot();
+    }
+
+    @Benchmark
+    public Object[] registerAndRemove() {
+        var set = new CopyOnWriteSortedSet<XC_LayoutInflated>();
+        for (var callback : batch) {
+            set.add(callback);
+        }
+        for (var callback : batch) {
+            set.remove(callback);
+        }
+        return set.getSnapshot();
+    }
+
+    static class Callback extends XC_LayoutInflated {
+        Callback(int priority) {
+            super(priority);
+        }
+
+        @Override
+        public void handleLayoutInflated(LayoutInflatedParam liparam) {
+        }
+    }
+}
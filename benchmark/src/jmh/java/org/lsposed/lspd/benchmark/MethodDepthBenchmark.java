@@ -0,0 +1,141 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Measures a re-entrancy guard of a hot hook, an increment, a check and a decrement of a method
+ * depth counter, from 8 threads. synchronized is the former global HashMap of ThreadLocals,
+ * table the current per-thread counter table in XposedHelpers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class MethodDepthBenchmark {
+    private static final String[] METHODS = {"module.onCreate", "module.getDrawable", "module.inflate", "module.query"};
+
+    @Param({"synchronized", "table"})
+    public String impl;
+
+    private Depths depths;
+
+    private interface Depths {
+        int increment(String method);
+
+        int decrement(String method);
+
+        int get(String method);
+    }
+
+    private static final class SynchronizedDepths implements Depths {
+        private final HashMap<String, ThreadLocal<AtomicInteger>> sMethodDepth = new HashMap<>();
+
+        private ThreadLocal<AtomicInteger> counter(String method) {
+            synchronized (sMethodDepth) {
+                ThreadLocal<AtomicInteger> counter = sMethodDepth.get(method);
+                if (counter == null) {
+                    counter = ThreadLocal.withInitial(AtomicInteger::new);
+                    sMethodDepth.put(method, counter);
+                }
+                return counter;
+            }
+        }
+
+        @Override
+        public int increment(String method) {
+            return counter(method).get().incrementAndGet();
+        }
+
+        @Override
+        public int decrement(String method) {
+            return counter(method).get().decrementAndGet();
+        }
+
+        @Override
+        public int get(String method) {
+            return counter(method).get().get();
+        }
+    }
+
+    private static final class TableDepths implements Depths {
+        @Override
+        public int increment(String method) {
+            return XposedHelpers.incrementMethodDepth(method);
+        }
+
+        @Override
+        public int decrement(String method) {
+            return XposedHelpers.decrementMethodDepth(method);
+        }
+
+        @Override
+        public int get(String method) {
+            return XposedHelpers.getMethodDepth(method);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String next() {
+            return METHODS[next++ & (METHODS.length - 1)];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        depths = impl.equals("synchronized") ? new SynchronizedDepths() : new TableDepths();
+    }
+
+    @Benchmark
+    public int guard(Cursor cursor) {
+        var method = cursor.next();
+        try {
+            if (depths.increment(method) > 1) return 0;
+            return depths.get(method);
+        } finally {
+            depths.decrement(method);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.benchmark;
+
+/**
+ * The hooked class. It is defined again by {@link TargetLoader}, because the bridges refuse to
+ * hook classes from their own class loader.
+ */
+public class Target {
+    private int counter;
+
+    public int compute(int value, String tag) {
+        counter += value;
+        return counter + tag.length();
+    }
+
+    public String describe(Object value) {
+        return String.valueOf(value);
+    }
+
+    public long mix(int i, long l, double d, float f, boolean z, char c) {
+        return z ? i + l + (long) d + (long) f + c : counter;
+    }
+
+    public Object pick(Object a, Object b, Object c, Object d, Object e, Object f) {
+        return counter % 2 == 0 ? a : f;
+    }
+}
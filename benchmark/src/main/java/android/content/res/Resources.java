@@ -0,0 +1,41 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package android.content.res;
+
+public class Resources {
+    public static Resources getSystem() {
+        throw new UnsupportedOperationException("STUB");
+    }
+
+    public TypedArray obtainTypedArray(int id) throws NotFoundException {
+        throw new UnsupportedOperationException("STUB");
+    }
+
+    public int getIdentifier(String name, String defType, String defPackage) {
+        throw new UnsupportedOperationException("STUB");
+    }
+
+    public final AssetManager getAssets() {
+        throw new UnsupportedOperationException("STUB");
+    }
+
+    public static class NotFoundException extends RuntimeException {
+    }
+}
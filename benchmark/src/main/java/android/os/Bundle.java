@@ -0,0 +1,35 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package android.os;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+public class Bundle {
+    private final HashMap<String, Serializable> map = new HashMap<>();
+
+    public Serializable getSerializable(String key) {
+        return map.get(key);
+    }
+
+    public void putSerializable(String key, Serializable value) {
+        map.put(key, value);
+    }
+}
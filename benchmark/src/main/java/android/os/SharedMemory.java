@@ -0,0 +1,36 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package android.os;
+
+import android.system.ErrnoException;
+
+import java.nio.ByteBuffer;
+
+public final class SharedMemory {
+    public ByteBuffer mapReadOnly() throws ErrnoException {
+        throw new ErrnoException();
+    }
+
+    public static void unmap(ByteBuffer buffer) {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+package org.lsposed.lspd.nativebridge;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Executable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host replacement of hook_bridge.cpp. It keeps the same per-method bookkeeping and publishes
+ * callback snapshots to the hooker the same way, but never touches the hooked method itself:
+ * callers obtain the hooker with {@link #getHooker} and invoke its callback directly.
+ */
+public class HookBridge {
+    private static final class HookItem {
+        final Object hooker;
+        final TreeMap<Integer, ArrayList<Object>> legacyCallbacks = new TreeMap<>(Collections.reverseOrder());
+        final TreeMap<Integer, ArrayList<Object>> modernCallbacks = new TreeMap<>(Collections.reverseOrder());
+
+        HookItem(Object hooker) {
+            this.hooker = hooker;
+        }
+
+        void publishSnapshot() {
+            try {
+                publishMethod.invoke(hooker, flatten(modernCallbacks), flatten(legacyCallbacks));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static Object[] flatten(TreeMap<Integer, ArrayList<Object>> callbacks) {
+            var list = new ArrayList<>();
+            for (var entry : callbacks.values()) {
+                list.addAll(entry);
+            }
+            return list.toArray();
+        }
+    }
+
+    private static final Map<Executable, HookItem> hookedMethods = new ConcurrentHashMap<>();
+
+    private static final Map<Executable, MethodHandle> originals = new ConcurrentHashMap<>();
+
+    private static volatile Method publishMethod;
+
+    public static boolean hookMethod(boolean useModernApi, Executable hookMethod, Class<?> hooker, int priority, Object callback) {
+        var hookItem = hookedMethods.computeIfAbsent(hookMethod, method -> {
+            try {
+                if (publishMethod == null) {
+                    var publish = hooker.getDeclaredMethod("publishCallbacks", Object[].class, Object[].class);
+                    publish.setAccessible(true);
+                    publishMethod = publish;
+                }
+                var init = hooker.getDeclaredConstructor(Executable.class);
+                init.setAccessible(true);
+                return new HookItem(init.newInstance(method));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        synchronized (hookItem) {
+            var callbacks = useModernApi ? hookItem.modernCallbacks : hookItem.legacyCallbacks;
+            callbacks.computeIfAbsent(priority, p -> new ArrayList<>()).add(callback);
+            hookItem.publishSnapshot();
+        }
+        return true;
+    }
+
+    public static boolean[] hookMethods(boolean useModernApi, Executable[] hookMethods, Class<?> hooker, int[] priorities, Object[] callbacks) {
+        var hooked = new boolean[hookMethods.length];
+        for (int i = 0; i < hookMethods.length; i++) {
+            hooked[i] = hookMethod(useModernApi, hookMethods[i], hooker, priorities[i], callbacks[i]);
+        }
+        return hooked;
+    }
+
+    public static boolean unhookMethod(boolean useModernApi, Executable hookMethod, Object callback) {
+        var hookItem = hookedMethods.get(hookMethod);
+        if (hookItem == null) return false;
+        synchronized (hookItem) {
+            var callbacks = useModernApi ? hookItem.modernCallbacks : hookItem.legacyCallbacks;
+            for (var iterator = callbacks.values().iterator(); iterator.hasNext(); ) {
+                var list = iterator.next();
+                for (int i = 0; i < list.size(); i++) {
+                    if (list.get(i) == callback) {
+                        list.remove(i);
+                        if (list.isEmpty()) iterator.remove();
+                        hookItem.publishSnapshot();
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the hooker that hook_bridge.cpp would install as the replacement of the method.
+     */
+    public static Object getHooker(Executable method) {
+        var hookItem = hookedMethods.get(method);
+        return hookItem == null ? null : hookItem.hooker;
+    }
+
+    public static boolean deoptimizeMethod(Executable method) {
+        return true;
+    }
+
+    public static <T> T allocateObject(Class<T> clazz) throws InstantiationException {
+        throw new InstantiationException("Not supported on host");
+    }
+
+    public static Object invokeOriginalMethod(Executable method, Object thisObject, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        if (method instanceof Method) {
+            return ((Method) method).invoke(thisObject, args);
+        }
+        throw new IllegalArgumentException("Constructors cannot be invoked on host: " + method);
+    }
+
+    /**
+     * Approximates the native shorty path with a spreading method handle: no reflective call and
+     * nothing thrown by the method gets wrapped.
+     */
+    public static Object invokeOriginal(Executable method, char[] shorty, Class<?>[] parameterTypes, Object thisObject, Object... args) throws Throwable {
+        var handle = originals.computeIfAbsent(method, HookBridge::spreader);
+        return handle.invokeExact(thisObject, args);
+    }
+
+    private static MethodHandle spreader(Executable method) {
+        if (!(method instanceof Method)) {
+            throw new IllegalArgumentException("Constructors cannot be invoked on host: " + method);
+        }
+        try {
+            method.setAccessible(true);
+            var handle = MethodHandles.lookup().unreflect((Method) method);
+            if (Modifier.isStatic(method.getModifiers())) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+            return handle.asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static <T> Object invokeSpecialMethod(Executable method, char[] shorty, Class<T> clazz, Object thisObject, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+        throw new IllegalArgumentException("Not supported on host");
+    }
+
+    public static boolean instanceOf(Object obj, Class<?> clazz) {
+        // JNI IsInstanceOf treats null as an instance of every class
+        return obj == null || clazz.isInstance(obj);
+    }
+
+    public static boolean setTrusted(Object cookie) {
+        return false;
+    }
+
+    public static boolean setClassInitObserver(Class<?> observer) {
+        return false;
+    }
+}
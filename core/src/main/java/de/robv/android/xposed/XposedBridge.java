@@ -25,6 +25,7 @@ import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.util.Log;
 
+import org.lsposed.lspd.impl.HookMetrics;
 import org.lsposed.lspd.impl.LSPosedBridge;
 import org.lsposed.lspd.impl.LSPosedHookCallback;
 import org.lsposed.lspd.nativebridge.HookBridge;
@@ -37,10 +38,12 @@ import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import de.robv.android.xposed.callbacks.XC_InitPackageResources;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
@@ -178,6 +181,18 @@ public final class XposedBridge {
         HookBridge.deoptimizeMethod((Executable) deoptimizedMethod);
     }
 
+    private static void checkHookable(Member hookMethod) {
+        if (!(hookMethod instanceof Executable)) {
+            throw new IllegalArgumentException("Only methods and constructors can be hooked: " + hookMethod);
+        } else if (Modifier.isAbstract(hookMethod.getModifiers())) {
+            throw new IllegalArgumentException("Cannot hook abstract methods: " + hookMethod);
+        } else if (hookMethod.getDeclaringClass().getClassLoader() == XposedBridge.class.getClassLoader()) {
+            throw new IllegalArgumentException("Do not allow hooking inner methods");
+        } else if (hookMethod.getDeclaringClass() == Method.class && hookMethod.getName().equals("invoke")) {
+            throw new IllegalArgumentException("Cannot hook Method.invoke");
+        }
+    }
+
     /**
      * Hook any method (or constructor) with the specified callback. See below for some wrappers
      * that make it easier to find a method/constructor in one step.
@@ -193,15 +208,7 @@ public final class XposedBridge {
      * @see #hookAllConstructors
      */
     public static XC_MethodHook.Unhook hookMethod(Member hookMethod, XC_MethodHook callback) {
-        if (!(hookMethod instanceof Executable)) {
-            throw new IllegalArgumentException("Only methods and constructors can be hooked: " + hookMethod);
-        } else if (Modifier.isAbstract(hookMethod.getModifiers())) {
-            throw new IllegalArgumentException("Cannot hook abstract methods: " + hookMethod);
-        } else if (hookMethod.getDeclaringClass().getClassLoader() == XposedBridge.class.getClassLoader()) {
-            throw new IllegalArgumentException("Do not allow hooking inner methods");
-        } else if (hookMethod.getDeclaringClass() == Method.class && hookMethod.getName().equals("invoke")) {
-            throw new IllegalArgumentException("Cannot hook Method.invoke");
-        }
+        checkHookable(hookMethod);
 
         if (callback == null) {
             throw new IllegalArgumentException("callback should not be null!");
@@ -242,11 +249,11 @@ public final class XposedBridge {
      */
     @SuppressWarnings("UnusedReturnValue")
     public static Set<XC_MethodHook.Unhook> hookAllMethods(Class<?> hookClass, String methodName, XC_MethodHook callback) {
-        Set<XC_MethodHook.Unhook> unhooks = new HashSet<>();
-        for (Member method : hookClass.getDeclaredMethods())
+        var methods = new ArrayList<Executable>();
+        for (Method method : hookClass.getDeclaredMethods())
             if (method.getName().equals(methodName))
-                unhooks.add(hookMethod(method, callback));
-        return unhooks;
+                methods.add(method);
+        return hookMethods(methods.toArray(new Executable[0]), callback);
     }
 
     /**
@@ -258,9 +265,35 @@ public final class XposedBridge {
      */
     @SuppressWarnings("UnusedReturnValue")
     public static Set<XC_MethodHook.Unhook> hookAllConstructors(Class<?> hookClass, XC_MethodHook callback) {
+        return hookMethods(hookClass.getDeclaredConstructors(), callback);
+    }
+
+    /**
+     * Same as calling {@link #hookMethod} for each method, but installs all hooks in one native call.
+     */
+    private static Set<XC_MethodHook.Unhook> hookMethods(Executable[] hookMethods, XC_MethodHook callback) {
+        for (Executable hookMethod : hookMethods) {
+            checkHookable(hookMethod);
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback should not be null!");
+        }
+
+        var priorities = new int[hookMethods.length];
+        Arrays.fill(priorities, callback.priority);
+        var callbacks = new Object[hookMethods.length];
+        Arrays.fill(callbacks, callback);
+        var hooked = HookBridge.hookMethods(false, hookMethods, LSPosedBridge.NativeHooker.class, priorities, callbacks);
+
         Set<XC_MethodHook.Unhook> unhooks = new HashSet<>();
-        for (Member constructor : hookClass.getDeclaredConstructors())
-            unhooks.add(hookMethod(constructor, callback));
+        for (int i = 0; i < hookMethods.length; i++) {
+            if (hooked[i]) {
+                unhooks.add(callback.new Unhook(hookMethods[i]));
+            } else {
+                log("Failed to hook " + hookMethods[i]);
+                unhooks.add(null);
+            }
+        }
         return unhooks;
     }
 
@@ -329,46 +362,90 @@ public final class XposedBridge {
     }
 
     /**
+     * Sorted by {@link Comparable#compareTo}, readers get the current array without any locking.
+     * Writers publish a new array with a CAS and retry when they lose the race.
+     *
      * @hide
      */
     public static final class CopyOnWriteSortedSet<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<CopyOnWriteSortedSet, Object[]> ELEMENTS =
+                AtomicReferenceFieldUpdater.newUpdater(CopyOnWriteSortedSet.class, Object[].class, "elements");
+
         private transient volatile Object[] elements = EMPTY_ARRAY;
 
         @SuppressWarnings("UnusedReturnValue")
-        public synchronized boolean add(E e) {
-            int index = indexOf(e);
-            if (index >= 0)
-                return false;
-
-            Object[] newElements = new Object[elements.length + 1];
-            System.arraycopy(elements, 0, newElements, 0, elements.length);
-            newElements[elements.length] = e;
-            Arrays.sort(newElements);
-            elements = newElements;
-            return true;
+        public boolean add(E e) {
+            while (true) {
+                var snapshot = elements;
+                int index = search(snapshot, e);
+                if (index >= 0 || contains(snapshot, e))
+                    return false;
+                index = -index - 1;
+
+                Object[] newElements = new Object[snapshot.length + 1];
+                System.arraycopy(snapshot, 0, newElements, 0, index);
+                newElements[index] = e;
+                System.arraycopy(snapshot, index, newElements, index + 1, snapshot.length - index);
+                if (ELEMENTS.compareAndSet(this, snapshot, newElements))
+                    return true;
+            }
         }
 
         @SuppressWarnings("UnusedReturnValue")
-        public synchronized boolean remove(E e) {
-            int index = indexOf(e);
-            if (index == -1)
-                return false;
-
-            Object[] newElements = new Object[elements.length - 1];
-            System.arraycopy(elements, 0, newElements, 0, index);
-            System.arraycopy(elements, index + 1, newElements, index, elements.length - index - 1);
-            elements = newElements;
-            return true;
+        public boolean remove(E e) {
+            while (true) {
+                var snapshot = elements;
+                int index = indexOf(snapshot, e);
+                if (index == -1)
+                    return false;
+
+                Object[] newElements = new Object[snapshot.length - 1];
+                System.arraycopy(snapshot, 0, newElements, 0, index);
+                System.arraycopy(snapshot, index + 1, newElements, index, snapshot.length - index - 1);
+                if (ELEMENTS.compareAndSet(this, snapshot, newElements))
+                    return true;
+            }
         }
 
-        private int indexOf(Object o) {
-            for (int i = 0; i < elements.length; i++) {
-                if (o.equals(elements[i]))
+        @SuppressWarnings("unchecked")
+        private static int search(Object[] snapshot, Object o) {
+            var key = (Comparable<Object>) o;
+            int low = 0;
+            int high = snapshot.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                var element = snapshot[mid];
+                if (element == o)
+                    return mid;
+                if (key.compareTo(element) > 0)
+                    low = mid + 1;
+                else
+                    high = mid - 1;
+            }
+            return -(low + 1);
+        }
+
+        // ties are broken by identity hash codes, which may collide and hide an element from search
+        private static int indexOf(Object[] snapshot, Object o) {
+            int index = search(snapshot, o);
+            if (index >= 0)
+                return index;
+            for (int i = 0; i < snapshot.length; i++) {
+                if (snapshot[i] == o)
                     return i;
             }
             return -1;
         }
 
+        private static boolean contains(Object[] snapshot, Object o) {
+            for (Object element : snapshot) {
+                if (element == o)
+                    return true;
+            }
+            return false;
+        }
+
         public Object[] getSnapshot() {
             return elements;
         }
@@ -378,7 +455,7 @@ public final class XposedBridge {
             return (T[]) Arrays.copyOf(snapshot, snapshot.length, a.getClass());
         }
 
-        public synchronized void clear() {
+        public void clear() {
             elements = EMPTY_ARRAY;
         }
     }
@@ -387,18 +464,25 @@ public final class XposedBridge {
         private final XC_MethodHook.MethodHookParam<T> param;
         private final LSPosedHookCallback<T> callback;
         private final Object[] snapshot;
+        private final HookMetrics.Recorder[] beforeMetrics;
+        private final HookMetrics.Recorder[] afterMetrics;
 
         private int beforeIdx;
 
-        public LegacyApiSupport(LSPosedHookCallback<T> callback, Object[] legacySnapshot) {
+        public LegacyApiSupport(LSPosedHookCallback<T> callback, Object[] legacySnapshot, HookMetrics.Recorder[] beforeMetrics, HookMetrics.Recorder[] afterMetrics) {
             this.param = new XC_MethodHook.MethodHookParam<>();
             this.callback = callback;
             this.snapshot = legacySnapshot;
+            this.beforeMetrics = beforeMetrics;
+            this.afterMetrics = afterMetrics;
         }
 
         public void handleBefore() {
             syncronizeApi(param, callback, true);
+            var metrics = beforeMetrics;
             for (beforeIdx = 0; beforeIdx < snapshot.length; beforeIdx++) {
+                long start = metrics != null ? System.nanoTime() : 0;
+                long cpuStart = metrics != null ? metrics[beforeIdx].cpuTime() : 0;
                 try {
                     var cb = (XC_MethodHook) snapshot[beforeIdx];
                     cb.beforeHookedMethod(param);
@@ -409,6 +493,8 @@ public final class XposedBridge {
                     param.setResult(null);
                     param.returnEarly = false;
                     continue;
+                } finally {
+                    if (metrics != null) metrics[beforeIdx].record(System.nanoTime() - start, cpuStart);
                 }
 
                 if (param.returnEarly) {
@@ -422,9 +508,12 @@ public final class XposedBridge {
 
         public void handleAfter() {
             syncronizeApi(param, callback, true);
+            var metrics = afterMetrics;
             for (int afterIdx = beforeIdx - 1; afterIdx >= 0; afterIdx--) {
                 Object lastResult = param.getResult();
                 Throwable lastThrowable = param.getThrowable();
+                long start = metrics != null ? System.nanoTime() : 0;
+                long cpuStart = metrics != null ? metrics[afterIdx].cpuTime() : 0;
                 try {
                     var cb = (XC_MethodHook) snapshot[afterIdx];
                     cb.afterHookedMethod(param);
@@ -437,6 +526,8 @@ public final class XposedBridge {
                     } else {
                         param.setThrowable(lastThrowable);
                     }
+                } finally {
+                    if (metrics != null) metrics[afterIdx].record(System.nanoTime() - start, cpuStart);
                 }
             }
             syncronizeApi(param, callback, false);
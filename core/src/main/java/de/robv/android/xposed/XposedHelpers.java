@@ -23,11 +23,11 @@ package de.robv.android.xposed;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
-
-import org.apache.commons.lang3.ClassUtilsX;
-import org.apache.commons.lang3.reflect.MemberUtilsX;
+import org.lsposed.lspd.impl.DeferredHooks;
+import org.lsposed.lspd.util.ClassCache;
+import org.lsposed.lspd.util.ClassMembers;
+import org.lsposed.lspd.util.FieldAccessor;
+import org.lsposed.lspd.util.WeakIdentityMap;
 
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
@@ -38,17 +38,13 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -59,127 +55,11 @@ public final class XposedHelpers {
     private XposedHelpers() {
     }
 
-    private static final ConcurrentHashMap<MemberCacheKey.Field, Optional<Field>> fieldCache = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<MemberCacheKey.Method, Optional<Method>> methodCache = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<MemberCacheKey.Constructor, Optional<Constructor<?>>> constructorCache = new ConcurrentHashMap<>();
-    private static final WeakHashMap<Object, HashMap<String, Object>> additionalFields = new WeakHashMap<>();
-    private static final HashMap<String, ThreadLocal<AtomicInteger>> sMethodDepth = new HashMap<>();
-
-    /**
-     * Note that we use object key instead of string here, because string calculation will lose all
-     * the benefits of 'HashMap', this is basically the solution of performance traps.
-     * <p>
-     * So in fact we only need to use the structural comparison results of the reflection object.
-     *
-     * @see <a href="https://github.com/RinOrz/LSPosed/blob/a44e1f1cdf0c5e5ebfaface828e5907f5425df1b/benchmark/src/result/ReflectionCacheBenchmark.json">benchmarks for ART</a>
-     * @see <a href="https://github.com/meowool-catnip/cloak/blob/main/api/src/benchmark/kotlin/com/meowool/cloak/ReflectionObjectAccessTests.kt#L37-L65">benchmarks for JVM</a>
-     */
-    private abstract static class MemberCacheKey {
-        private final int hash;
-
-        protected MemberCacheKey(int hash) {
-            this.hash = hash;
-        }
-
-        @Override
-        public abstract boolean equals(@Nullable Object obj);
-
-        @Override
-        public final int hashCode() {
-            return hash;
-        }
-
-        static final class Constructor extends MemberCacheKey {
-            private final Class<?> clazz;
-            private final Class<?>[] parameters;
-            private final boolean isExact;
-
-            public Constructor(Class<?> clazz, Class<?>[] parameters, boolean isExact) {
-                super(31 * Objects.hash(clazz, isExact) + Arrays.hashCode(parameters));
-                this.clazz = clazz;
-                this.parameters = parameters;
-                this.isExact = isExact;
-            }
-
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (!(o instanceof Constructor)) return false;
-                Constructor that = (Constructor) o;
-                return isExact == that.isExact && Objects.equals(clazz, that.clazz) && Arrays.equals(parameters, that.parameters);
-            }
-
-            @NonNull
-            @Override
-            public String toString() {
-                var str = clazz.getName() + getParametersString(parameters);
-                if (isExact) {
-                    return str + "#exact";
-                } else {
-                    return str;
-                }
-            }
-        }
-
-        static final class Field extends MemberCacheKey {
-            private final Class<?> clazz;
-            private final String name;
-
-            public Field(Class<?> clazz, String name) {
-                super(Objects.hash(clazz, name));
-                this.clazz = clazz;
-                this.name = name;
-            }
-
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (!(o instanceof Field)) return false;
-                Field field = (Field) o;
-                return Objects.equals(clazz, field.clazz) && Objects.equals(name, field.name);
-            }
-
-            @NonNull
-            @Override
-            public String toString() {
-                return clazz.getName() + "#" + name;
-            }
-        }
-
-        static final class Method extends MemberCacheKey {
-            private final Class<?> clazz;
-            private final String name;
-            private final Class<?>[] parameters;
-            private final boolean isExact;
-
-            public Method(Class<?> clazz, String name, Class<?>[] parameters, boolean isExact) {
-                super(31 * Objects.hash(clazz, name, isExact) + Arrays.hashCode(parameters));
-                this.clazz = clazz;
-                this.name = name;
-                this.parameters = parameters;
-                this.isExact = isExact;
-            }
-
-            @Override
-            public boolean equals(Object o) {
-                if (this == o) return true;
-                if (!(o instanceof Method)) return false;
-                Method method = (Method) o;
-                return isExact == method.isExact && Objects.equals(clazz, method.clazz) && Objects.equals(name, method.name) && Arrays.equals(parameters, method.parameters);
-            }
-
-            @NonNull
-            @Override
-            public String toString() {
-                var str = clazz.getName() + '#' + name + getParametersString(parameters);
-                if (isExact) {
-                    return str + "#exact";
-                } else {
-                    return str;
-                }
-            }
-        }
-    }
+    private static final WeakIdentityMap<Object, ConcurrentHashMap<String, Object>> additionalFields = new WeakIdentityMap<>();
+    // Method depth counters, by an id interned per method name, in a table per thread
+    private static final ConcurrentHashMap<String, Integer> sMethodDepthIds = new ConcurrentHashMap<>();
+    private static final AtomicInteger sNextMethodDepthId = new AtomicInteger();
+    private static final ThreadLocal<int[]> sMethodDepths = ThreadLocal.withInitial(() -> new int[16]);
 
     /**
      * Look up a class with the specified class loader.
@@ -202,7 +82,7 @@ public final class XposedHelpers {
         if (classLoader == null)
             classLoader = XposedBridge.BOOTCLASSLOADER;
         try {
-            return ClassUtilsX.getClass(classLoader, className, false);
+            return ClassCache.getClass(classLoader, className);
         } catch (ClassNotFoundException e) {
             throw new ClassNotFoundError(e);
         }
@@ -217,11 +97,9 @@ public final class XposedHelpers {
      * @return A reference to the class, or {@code null} if it doesn't exist.
      */
     public static Class<?> findClassIfExists(String className, ClassLoader classLoader) {
-        try {
-            return findClass(className, classLoader);
-        } catch (ClassNotFoundError e) {
-            return null;
-        }
+        if (classLoader == null)
+            classLoader = XposedBridge.BOOTCLASSLOADER;
+        return ClassCache.findClass(classLoader, className);
     }
 
     /**
@@ -233,17 +111,15 @@ public final class XposedHelpers {
      * @throws NoSuchFieldError In case the field was not found.
      */
     public static Field findField(Class<?> clazz, String fieldName) {
-        var key = new MemberCacheKey.Field(clazz, fieldName);
-
-        return fieldCache.computeIfAbsent(key, k -> {
-            try {
-                Field newField = findFieldRecursiveImpl(k.clazz, k.name);
-                newField.setAccessible(true);
-                return Optional.of(newField);
-            } catch (NoSuchFieldException e) {
-                return Optional.empty();
-            }
-        }).orElseThrow(() -> new NoSuchFieldError(key.toString()));
+        var members = ClassMembers.of(clazz);
+        var field = members.getField(fieldName);
+        if (field != null) return field;
+
+        // inherited fields are cached by name, which never clashes with the best match keys
+        var inherited = members.resolve(fieldName, XposedHelpers::findInheritedField);
+        if (!inherited.isPresent())
+            throw new NoSuchFieldError(clazz.getName() + "#" + fieldName);
+        return inherited.get();
     }
 
     /**
@@ -262,21 +138,19 @@ public final class XposedHelpers {
         }
     }
 
-    private static Field findFieldRecursiveImpl(Class<?> clazz, String fieldName) throws NoSuchFieldException {
-        try {
-            return clazz.getDeclaredField(fieldName);
-        } catch (NoSuchFieldException e) {
-            while (true) {
-                clazz = clazz.getSuperclass();
-                if (clazz == null || clazz.equals(Object.class))
-                    break;
+    private static FieldAccessor findFieldAccessor(Class<?> clazz, String fieldName) {
+        return ClassMembers.of(clazz).getFieldAccessor(fieldName, XposedHelpers::findField);
+    }
 
-                try {
-                    return clazz.getDeclaredField(fieldName);
-                } catch (NoSuchFieldException ignored) {
-                }
-            }
-            throw e;
+    private static Optional<Field> findInheritedField(Class<?> clazz, String fieldName) {
+        while (true) {
+            clazz = clazz.getSuperclass();
+            if (clazz == null || clazz.equals(Object.class))
+                return Optional.empty();
+
+            var field = ClassMembers.of(clazz).getField(fieldName);
+            if (field != null)
+                return Optional.of(field);
         }
     }
 
@@ -390,6 +264,24 @@ public final class XposedHelpers {
         return findAndHookMethod(findClass(className, classLoader), methodName, parameterTypesAndCallback);
     }
 
+    /**
+     * Like {@link #findAndHookMethod(String, ClassLoader, String, Object...)}, but the class is not
+     * loaded for it. The hook is installed once the class is initialized by {@code classLoader} or
+     * one of its parents, before any of its code runs, and immediately if it is already loaded.
+     * Errors are logged instead of thrown.
+     *
+     * @hide
+     */
+    public static void findAndHookMethodDeferred(String className, ClassLoader classLoader, String methodName, Object... parameterTypesAndCallback) {
+        if (parameterTypesAndCallback.length == 0 || !(parameterTypesAndCallback[parameterTypesAndCallback.length - 1] instanceof XC_MethodHook))
+            throw new IllegalArgumentException("no callback defined");
+
+        if (classLoader == null)
+            classLoader = XposedBridge.BOOTCLASSLOADER;
+        DeferredHooks.defer(className, classLoader, methodName + getDeferredParametersString(parameterTypesAndCallback),
+                clazz -> findAndHookMethod(clazz, methodName, parameterTypesAndCallback));
+    }
+
     /**
      * Look up a method in a class and set it to accessible.
      * See {@link #findMethodExact(String, ClassLoader, String, Object...)} for details.
@@ -455,17 +347,11 @@ public final class XposedHelpers {
      * <p>This variant requires that you already have reference to all the parameter types.
      */
     public static Method findMethodExact(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
-        var key = new MemberCacheKey.Method(clazz, methodName, parameterTypes, true);
-
-        return methodCache.computeIfAbsent(key, k -> {
-            try {
-                Method method = k.clazz.getDeclaredMethod(k.name, k.parameters);
-                method.setAccessible(true);
-                return Optional.of(method);
-            } catch (NoSuchMethodException e) {
-                return Optional.empty();
-            }
-        }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        var methods = ClassMembers.of(clazz).getMethods(methodName);
+        var method = methods != null ? methods.find(parameterTypes) : null;
+        if (method == null)
+            throw new NoSuchMethodError(clazz.getName() + '#' + methodName + getParametersString(parameterTypes) + "#exact");
+        return method;
     }
 
     /**
@@ -520,49 +406,19 @@ public final class XposedHelpers {
      * @throws NoSuchMethodError In case no suitable method was found.
      */
     public static Method findMethodBestMatch(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+        var members = ClassMembers.of(clazz);
+
         // find the exact matching method first
-        try {
-            return findMethodExact(clazz, methodName, parameterTypes);
-        } catch (NoSuchMethodError ignored) {
-        }
+        var methods = members.getMethods(methodName);
+        var method = methods != null ? methods.find(parameterTypes) : null;
+        if (method != null)
+            return method;
 
         // then find the best match
-        var key = new MemberCacheKey.Method(clazz, methodName, parameterTypes, false);
-
-        return methodCache.computeIfAbsent(key, k -> {
-            Method bestMatch = null;
-            Class<?> clz = k.clazz;
-            boolean considerPrivateMethods = true;
-            do {
-                for (Method method : clz.getDeclaredMethods()) {
-                    // don't consider private methods of superclasses
-                    if (!considerPrivateMethods && Modifier.isPrivate(method.getModifiers()))
-                        continue;
-
-                    // compare name and parameters
-                    if (method.getName().equals(k.name) && ClassUtilsX.isAssignable(
-                            k.parameters,
-                            method.getParameterTypes(),
-                            true)) {
-                        // get accessible version of method
-                        if (bestMatch == null || MemberUtilsX.compareMethodFit(
-                                method,
-                                bestMatch,
-                                k.parameters) < 0) {
-                            bestMatch = method;
-                        }
-                    }
-                }
-                considerPrivateMethods = false;
-            } while ((clz = clz.getSuperclass()) != null);
-
-            if (bestMatch != null) {
-                bestMatch.setAccessible(true);
-                return Optional.of(bestMatch);
-            } else {
-                return Optional.empty();
-            }
-        }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        method = members.getMethodOverloads(methodName).bestMatch(parameterTypes);
+        if (method == null)
+            throw new NoSuchMethodError(clazz.getName() + '#' + methodName + getParametersString(parameterTypes));
+        return method;
     }
 
     /**
@@ -572,7 +428,13 @@ public final class XposedHelpers {
      * determines the parameter types from the classes of the given objects.
      */
     public static Method findMethodBestMatch(Class<?> clazz, String methodName, Object... args) {
-        return findMethodBestMatch(clazz, methodName, getParameterTypes(args));
+        var callSite = ClassMembers.of(clazz).getMethodCallSite(methodName);
+        var method = callSite.lookup(args);
+        if (method == null) {
+            method = findMethodBestMatch(clazz, methodName, getParameterTypes(args));
+            callSite.add(args, method);
+        }
+        return method;
     }
 
     /**
@@ -645,6 +507,19 @@ public final class XposedHelpers {
         return clazzes;
     }
 
+    private static String getDeferredParametersString(Object[] parameterTypesAndCallback) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < parameterTypesAndCallback.length - 1; i++) {
+            if (i != 0)
+                sb.append(",");
+
+            Object type = parameterTypesAndCallback[i];
+            sb.append(type instanceof Class ? ((Class<?>) type).getName() : String.valueOf(type));
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+
     private static String getParametersString(Class<?>... clazzes) {
         StringBuilder sb = new StringBuilder("(");
         boolean first = true;
@@ -708,17 +583,10 @@ public final class XposedHelpers {
      * See {@link #findMethodExact(String, ClassLoader, String, Object...)} for details.
      */
     public static Constructor<?> findConstructorExact(Class<?> clazz, Class<?>... parameterTypes) {
-        var key = new MemberCacheKey.Constructor(clazz, parameterTypes, true);
-
-        return constructorCache.computeIfAbsent(key, k -> {
-            try {
-                Constructor<?> constructor = k.clazz.getDeclaredConstructor(k.parameters);
-                constructor.setAccessible(true);
-                return Optional.of(constructor);
-            } catch (NoSuchMethodException e) {
-                return Optional.empty();
-            }
-        }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        var constructor = ClassMembers.of(clazz).getConstructors().find(parameterTypes);
+        if (constructor == null)
+            throw new NoSuchMethodError(clazz.getName() + getParametersString(parameterTypes) + "#exact");
+        return constructor;
     }
 
     /**
@@ -743,47 +611,40 @@ public final class XposedHelpers {
         return findAndHookConstructor(findClass(className, classLoader), parameterTypesAndCallback);
     }
 
+    /**
+     * Look up a constructor and hook it once its class is loaded. See
+     * {@link #findAndHookMethodDeferred(String, ClassLoader, String, Object...)} for details.
+     *
+     * @hide
+     */
+    public static void findAndHookConstructorDeferred(String className, ClassLoader classLoader, Object... parameterTypesAndCallback) {
+        if (parameterTypesAndCallback.length == 0 || !(parameterTypesAndCallback[parameterTypesAndCallback.length - 1] instanceof XC_MethodHook))
+            throw new IllegalArgumentException("no callback defined");
+
+        if (classLoader == null)
+            classLoader = XposedBridge.BOOTCLASSLOADER;
+        DeferredHooks.defer(className, classLoader, "<init>" + getDeferredParametersString(parameterTypesAndCallback),
+                clazz -> findAndHookConstructor(clazz, parameterTypesAndCallback));
+    }
+
     /**
      * Look up a constructor in a class and set it to accessible.
      *
      * <p>See {@link #findMethodBestMatch(Class, String, Class...)} for details.
      */
     public static Constructor<?> findConstructorBestMatch(Class<?> clazz, Class<?>... parameterTypes) {
+        var members = ClassMembers.of(clazz);
+
         // find the exact matching constructor first
-        try {
-            return findConstructorExact(clazz, parameterTypes);
-        } catch (NoSuchMethodError ignored) {
-        }
+        var constructor = members.getConstructors().find(parameterTypes);
+        if (constructor != null)
+            return constructor;
 
         // then find the best match
-        var key = new MemberCacheKey.Constructor(clazz, parameterTypes, false);
-
-        return constructorCache.computeIfAbsent(key, k -> {
-            Constructor<?> bestMatch = null;
-            Constructor<?>[] constructors = k.clazz.getDeclaredConstructors();
-            for (Constructor<?> constructor : constructors) {
-                // compare name and parameters
-                if (ClassUtilsX.isAssignable(
-                        k.parameters,
-                        constructor.getParameterTypes(),
-                        true)) {
-                    // get accessible version of method
-                    if (bestMatch == null || MemberUtilsX.compareConstructorFit(
-                            constructor,
-                            bestMatch,
-                            k.parameters) < 0) {
-                        bestMatch = constructor;
-                    }
-                }
-            }
-
-            if (bestMatch != null) {
-                bestMatch.setAccessible(true);
-                return Optional.of(bestMatch);
-            } else {
-                return Optional.empty();
-            }
-        }).orElseThrow(() -> new NoSuchMethodError(key.toString()));
+        constructor = members.getConstructorOverloads().bestMatch(parameterTypes);
+        if (constructor == null)
+            throw new NoSuchMethodError(clazz.getName() + getParametersString(parameterTypes));
+        return constructor;
     }
 
     /**
@@ -793,7 +654,13 @@ public final class XposedHelpers {
      * determines the parameter types from the classes of the given objects.
      */
     public static Constructor<?> findConstructorBestMatch(Class<?> clazz, Object... args) {
-        return findConstructorBestMatch(clazz, getParameterTypes(args));
+        var callSite = ClassMembers.of(clazz).getConstructorCallSite();
+        var constructor = callSite.lookup(args);
+        if (constructor == null) {
+            constructor = findConstructorBestMatch(clazz, getParameterTypes(args));
+            callSite.add(args, constructor);
+        }
+        return constructor;
     }
 
     /**
@@ -888,7 +755,7 @@ public final class XposedHelpers {
      */
     public static void setObjectField(Object obj, String fieldName, Object value) {
         try {
-            findField(obj.getClass(), fieldName).set(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).set(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -903,7 +770,7 @@ public final class XposedHelpers {
      */
     public static void setBooleanField(Object obj, String fieldName, boolean value) {
         try {
-            findField(obj.getClass(), fieldName).setBoolean(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setBoolean(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -918,7 +785,7 @@ public final class XposedHelpers {
      */
     public static void setByteField(Object obj, String fieldName, byte value) {
         try {
-            findField(obj.getClass(), fieldName).setByte(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setByte(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -933,7 +800,7 @@ public final class XposedHelpers {
      */
     public static void setCharField(Object obj, String fieldName, char value) {
         try {
-            findField(obj.getClass(), fieldName).setChar(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setChar(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -948,7 +815,7 @@ public final class XposedHelpers {
      */
     public static void setDoubleField(Object obj, String fieldName, double value) {
         try {
-            findField(obj.getClass(), fieldName).setDouble(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setDouble(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -963,7 +830,7 @@ public final class XposedHelpers {
      */
     public static void setFloatField(Object obj, String fieldName, float value) {
         try {
-            findField(obj.getClass(), fieldName).setFloat(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setFloat(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -978,7 +845,7 @@ public final class XposedHelpers {
      */
     public static void setIntField(Object obj, String fieldName, int value) {
         try {
-            findField(obj.getClass(), fieldName).setInt(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setInt(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -993,7 +860,7 @@ public final class XposedHelpers {
      */
     public static void setLongField(Object obj, String fieldName, long value) {
         try {
-            findField(obj.getClass(), fieldName).setLong(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setLong(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1008,7 +875,7 @@ public final class XposedHelpers {
      */
     public static void setShortField(Object obj, String fieldName, short value) {
         try {
-            findField(obj.getClass(), fieldName).setShort(obj, value);
+            findFieldAccessor(obj.getClass(), fieldName).setShort(obj, value);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1025,7 +892,7 @@ public final class XposedHelpers {
      */
     public static Object getObjectField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).get(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).get(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1048,7 +915,7 @@ public final class XposedHelpers {
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public static boolean getBooleanField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getBoolean(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getBoolean(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1063,7 +930,7 @@ public final class XposedHelpers {
      */
     public static byte getByteField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getByte(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getByte(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1078,7 +945,7 @@ public final class XposedHelpers {
      */
     public static char getCharField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getChar(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getChar(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1093,7 +960,7 @@ public final class XposedHelpers {
      */
     public static double getDoubleField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getDouble(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getDouble(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1108,7 +975,7 @@ public final class XposedHelpers {
      */
     public static float getFloatField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getFloat(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getFloat(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1123,7 +990,7 @@ public final class XposedHelpers {
      */
     public static int getIntField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getInt(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getInt(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1138,7 +1005,7 @@ public final class XposedHelpers {
      */
     public static long getLongField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getLong(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getLong(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1153,7 +1020,7 @@ public final class XposedHelpers {
      */
     public static short getShortField(Object obj, String fieldName) {
         try {
-            return findField(obj.getClass(), fieldName).getShort(obj);
+            return findFieldAccessor(obj.getClass(), fieldName).getShort(obj);
         } catch (IllegalAccessException e) {
             // should not happen
             XposedBridge.log(e);
@@ -1615,18 +1482,9 @@ public final class XposedHelpers {
         if (key == null)
             throw new NullPointerException("key must not be null");
 
-        HashMap<String, Object> objectFields;
-        synchronized (additionalFields) {
-            objectFields = additionalFields.get(obj);
-            if (objectFields == null) {
-                objectFields = new HashMap<>();
-                additionalFields.put(obj, objectFields);
-            }
-        }
-
-        synchronized (objectFields) {
-            return objectFields.put(key, value);
-        }
+        var objectFields = additionalFields.computeIfAbsent(obj, o -> new ConcurrentHashMap<>(4));
+        // ConcurrentHashMap has no null values, storing null is the same as removing
+        return value != null ? objectFields.put(key, value) : objectFields.remove(key);
     }
 
     /**
@@ -1642,16 +1500,8 @@ public final class XposedHelpers {
         if (key == null)
             throw new NullPointerException("key must not be null");
 
-        HashMap<String, Object> objectFields;
-        synchronized (additionalFields) {
-            objectFields = additionalFields.get(obj);
-            if (objectFields == null)
-                return null;
-        }
-
-        synchronized (objectFields) {
-            return objectFields.get(key);
-        }
+        var objectFields = additionalFields.get(obj);
+        return objectFields != null ? objectFields.get(key) : null;
     }
 
     /**
@@ -1667,16 +1517,8 @@ public final class XposedHelpers {
         if (key == null)
             throw new NullPointerException("key must not be null");
 
-        HashMap<String, Object> objectFields;
-        synchronized (additionalFields) {
-            objectFields = additionalFields.get(obj);
-            if (objectFields == null)
-                return null;
-        }
-
-        synchronized (objectFields) {
-            return objectFields.remove(key);
-        }
+        var objectFields = additionalFields.get(obj);
+        return objectFields != null ? objectFields.remove(key) : null;
     }
 
     /**
@@ -1782,7 +1624,8 @@ public final class XposedHelpers {
      * @return The updated depth.
      */
     public static int incrementMethodDepth(String method) {
-        return getMethodDepthCounter(method).get().incrementAndGet();
+        int id = getMethodDepthId(method);
+        return ++getMethodDepths(id)[id];
     }
 
     /**
@@ -1793,7 +1636,8 @@ public final class XposedHelpers {
      * @return The updated depth.
      */
     public static int decrementMethodDepth(String method) {
-        return getMethodDepthCounter(method).get().decrementAndGet();
+        int id = getMethodDepthId(method);
+        return --getMethodDepths(id)[id];
     }
 
     /**
@@ -1804,23 +1648,25 @@ public final class XposedHelpers {
      * @return The updated depth.
      */
     public static int getMethodDepth(String method) {
-        return getMethodDepthCounter(method).get().get();
-    }
-
-    private static ThreadLocal<AtomicInteger> getMethodDepthCounter(String method) {
-        synchronized (sMethodDepth) {
-            ThreadLocal<AtomicInteger> counter = sMethodDepth.get(method);
-            if (counter == null) {
-                counter = new ThreadLocal<AtomicInteger>() {
-                    @Override
-                    protected AtomicInteger initialValue() {
-                        return new AtomicInteger();
-                    }
-                };
-                sMethodDepth.put(method, counter);
-            }
-            return counter;
+        int id = getMethodDepthId(method);
+        return getMethodDepths(id)[id];
+    }
+
+    private static int getMethodDepthId(String method) {
+        var id = sMethodDepthIds.get(method);
+        if (id == null) {
+            id = sMethodDepthIds.computeIfAbsent(method, m -> sNextMethodDepthId.getAndIncrement());
+        }
+        return id;
+    }
+
+    private static int[] getMethodDepths(int id) {
+        var depths = sMethodDepths.get();
+        if (id >= depths.length) {
+            depths = Arrays.copyOf(depths, Math.max(depths.length * 2, id + 1));
+            sMethodDepths.set(depths);
         }
+        return depths;
     }
 
     //#################################################################################################
@@ -40,7 +40,9 @@ import android.os.IBinder;
 import android.os.Process;
 import android.util.ArrayMap;
 
+import org.lsposed.lspd.impl.HookMetrics;
 import org.lsposed.lspd.impl.LSPosedContext;
+import org.lsposed.lspd.impl.StartupTimeline;
 import org.lsposed.lspd.models.PreLoadedApk;
 import org.lsposed.lspd.nativebridge.NativeAPI;
 import org.lsposed.lspd.nativebridge.ResourcesHook;
@@ -52,10 +54,14 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import de.robv.android.xposed.callbacks.XC_InitPackageResources;
@@ -223,24 +229,88 @@ public final class XposedInit {
         return loadedModules;
     }
 
+    // below this, starting a pool costs more than resolving the modules on this thread
+    private static final int MIN_PARALLEL_MODULES = 3;
+
+    /**
+     * Loads the legacy modules in two stages. Class loaders are built and the classes listed in
+     * {@code xposed_init} are resolved for all modules in parallel on a bounded pool, or on this
+     * thread for fewer than {@link #MIN_PARALLEL_MODULES} modules. Meanwhile this thread
+     * instantiates each module and invokes its callbacks in the order of the module list as soon
+     * as that module is resolved, so that hooks are registered in the same order as before.
+     */
     public static void loadLegacyModules() {
         var moduleList = serviceClient.getLegacyModulesList();
-        moduleList.forEach(module -> {
-            var apk = module.apkPath;
-            var name = module.packageName;
-            var file = module.file;
-            loadedModules.put(name, Optional.of(apk)); // temporarily add it for XSharedPreference
-            if (!loadModule(name, apk, file)) {
-                loadedModules.remove(name);
+        if (moduleList.isEmpty()) return;
+        long start = System.nanoTime();
+        // temporarily add them for XSharedPreference
+        moduleList.forEach(module -> loadedModules.put(module.packageName, Optional.of(module.apkPath)));
+        var threads = moduleList.size() < MIN_PARALLEL_MODULES ? 1 :
+                Math.min(moduleList.size(), Runtime.getRuntime().availableProcessors());
+        if (threads == 1) {
+            for (var module : moduleList) {
+                initLegacyModule(LegacyModule.prepare(module.packageName, module.apkPath, module.file));
             }
-        });
+        } else {
+            var pool = Executors.newFixedThreadPool(threads, r -> {
+                var thread = new Thread(r, "LSPosed-module-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                var pending = new ArrayList<Future<LegacyModule>>(moduleList.size());
+                for (var module : moduleList) {
+                    pending.add(pool.submit(() -> LegacyModule.prepare(module.packageName, module.apkPath, module.file)));
+                }
+                for (int i = 0; i < pending.size(); i++) {
+                    LegacyModule module;
+                    try {
+                        module = pending.get(i).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        Log.e(TAG, "Interrupted while loading legacy modules", e);
+                        for (int j = i; j < moduleList.size(); j++) {
+                            loadedModules.remove(moduleList.get(j).packageName);
+                        }
+                        break;
+                    } catch (ExecutionException e) {
+                        // prepare catches what modules throw, so this is an error of our own
+                        var name = moduleList.get(i).packageName;
+                        Log.e(TAG, "Failed to resolve legacy module " + name, e.getCause());
+                        loadedModules.remove(name);
+                        continue;
+                    }
+                    initLegacyModule(module);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        Log.i(TAG, "Loading " + moduleList.size() + " legacy modules on " + threads + " threads took "
+                + millis(System.nanoTime() - start) + " ms");
+    }
+
+    private static void initLegacyModule(LegacyModule module) {
+        long initStart = System.nanoTime();
+        if (!loadModule(module)) {
+            loadedModules.remove(module.name);
+        }
+        Log.i(TAG, "  Legacy module " + module.name + " resolved in " + millis(module.prepareNanos)
+                + " ms, initialized in " + millis(System.nanoTime() - initStart) + " ms");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
     }
 
     public static void loadModules(ActivityThread at) {
         var packages = (ArrayMap<?, ?>) XposedHelpers.getObjectField(at, "mPackages");
         serviceClient.getModulesList().forEach(module -> {
             loadedModules.put(module.packageName, Optional.empty());
-            if (!LSPosedContext.loadModule(at, module)) {
+            var phase = StartupTimeline.begin("LSPosedContext.loadModule", module.packageName);
+            var loaded = LSPosedContext.loadModule(at, module);
+            StartupTimeline.end(phase);
+            if (!loaded) {
                 loadedModules.remove(module.packageName);
             } else {
                 packages.remove(module.packageName);
@@ -256,13 +326,15 @@ public final class XposedInit {
         moduleLibraryNames.forEach(NativeAPI::recordNativeEntrypoint);
     }
 
-    private static boolean initModule(ClassLoader mcl, String apk, List<String> moduleClassNames) {
+    private static boolean initModule(String apk, List<String> moduleClassNames, Object[] moduleClasses) {
         var count = 0;
-        for (var moduleClassName : moduleClassNames) {
+        for (int i = 0; i < moduleClassNames.size(); i++) {
+            var moduleClassName = moduleClassNames.get(i);
             try {
                 Log.i(TAG, "  Loading class " + moduleClassName);
 
-                Class<?> moduleClass = mcl.loadClass(moduleClassName);
+                if (moduleClasses[i] instanceof Throwable) throw (Throwable) moduleClasses[i];
+                Class<?> moduleClass = (Class<?>) moduleClasses[i];
 
                 if (!IXposedMod.class.isAssignableFrom(moduleClass)) {
                     Log.e(TAG, "    This class doesn't implement any sub-interface of IXposedMod, skipping it");
@@ -296,36 +368,90 @@ public final class XposedInit {
         return count > 0;
     }
 
+    /**
+     * A legacy module whose class loader is built and whose classes are resolved, but not yet
+     * initialized. Failures are kept to be reported in module order.
+     */
+    private static final class LegacyModule {
+        final String name;
+        final String apk;
+        final PreLoadedApk file;
+        ClassLoader classLoader;
+        // whether the Xposed API classes resolve to ours, null if they do not resolve at all
+        Boolean apiShared;
+        // the classes listed in xposed_init, or what they failed with
+        Object[] moduleClasses;
+        Throwable failure;
+        long prepareNanos;
+
+        private LegacyModule(String name, String apk, PreLoadedApk file) {
+            this.name = name;
+            this.apk = apk;
+            this.file = file;
+        }
+
+        static LegacyModule prepare(String name, String apk, PreLoadedApk file) {
+            long start = System.nanoTime();
+            var module = new LegacyModule(name, apk, file);
+            try {
+                var sb = new StringBuilder();
+                var abis = Process.is64Bit() ? Build.SUPPORTED_64_BIT_ABIS : Build.SUPPORTED_32_BIT_ABIS;
+                for (String abi : abis) {
+                    sb.append(apk).append("!/lib/").append(abi).append(File.pathSeparator);
+                }
+                var librarySearchPath = sb.toString();
+
+                var initLoader = XposedInit.class.getClassLoader();
+                var mcl = LspModuleClassLoader.loadApk(apk, file.preLoadedDexes, librarySearchPath, initLoader);
+                module.classLoader = mcl;
+                try {
+                    module.apiShared = mcl.loadClass(XposedBridge.class.getName()).getClassLoader() == initLoader;
+                } catch (ClassNotFoundException ignored) {
+                    return module;
+                }
+                if (!module.apiShared) return module;
+
+                var moduleClassNames = file.moduleClassNames;
+                module.moduleClasses = new Object[moduleClassNames.size()];
+                for (int i = 0; i < moduleClassNames.size(); i++) {
+                    try {
+                        module.moduleClasses[i] = mcl.loadClass(moduleClassNames.get(i));
+                    } catch (Throwable t) {
+                        module.moduleClasses[i] = t;
+                    }
+                }
+            } catch (Throwable t) {
+                module.failure = t;
+            } finally {
+                module.prepareNanos = System.nanoTime() - start;
+            }
+            return module;
+        }
+    }
+
     /**
      * Load a module from an APK by calling the init(String) method for all classes defined
      * in <code>assets/xposed_init</code>.
      */
-    private static boolean loadModule(String name, String apk, PreLoadedApk file) {
-        Log.i(TAG, "Loading legacy module " + name + " from " + apk);
+    private static boolean loadModule(LegacyModule module) {
+        var name = module.name;
+        Log.i(TAG, "Loading legacy module " + name + " from " + module.apk);
 
-        var sb = new StringBuilder();
-        var abis = Process.is64Bit() ? Build.SUPPORTED_64_BIT_ABIS : Build.SUPPORTED_32_BIT_ABIS;
-        for (String abi : abis) {
-            sb.append(apk).append("!/lib/").append(abi).append(File.pathSeparator);
+        if (module.failure != null) {
+            Log.e(TAG, "  Cannot load module: " + name, module.failure);
+            return false;
         }
-        var librarySearchPath = sb.toString();
-
-        var initLoader = XposedInit.class.getClassLoader();
-        var mcl = LspModuleClassLoader.loadApk(apk, file.preLoadedDexes, librarySearchPath, initLoader);
-
-        try {
-            if (mcl.loadClass(XposedBridge.class.getName()).getClassLoader() != initLoader) {
-                Log.e(TAG, "  Cannot load module: " + name);
-                Log.e(TAG, "  The Xposed API classes are compiled into the module's APK.");
-                Log.e(TAG, "  This may cause strange issues and must be fixed by the module developer.");
-                Log.e(TAG, "  For details, see: https://api.xposed.info/using.html");
-                return false;
-            }
-        } catch (ClassNotFoundException ignored) {
+        if (module.apiShared == null) return false;
+        if (!module.apiShared) {
+            Log.e(TAG, "  Cannot load module: " + name);
+            Log.e(TAG, "  The Xposed API classes are compiled into the module's APK.");
+            Log.e(TAG, "  This may cause strange issues and must be fixed by the module developer.");
+            Log.e(TAG, "  For details, see: https://api.xposed.info/using.html");
             return false;
         }
-        initNativeModule(file.moduleLibraryNames);
-        return initModule(mcl, apk, file.moduleClassNames);
+        HookMetrics.registerModule(module.classLoader, name);
+        initNativeModule(module.file.moduleLibraryNames);
+        return initModule(module.apk, module.file.moduleClassNames, module.moduleClasses);
     }
 
     public final static Set<String> loadedPackagesInProcess = ConcurrentHashMap.newKeySet(1);
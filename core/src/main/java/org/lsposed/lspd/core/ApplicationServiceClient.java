@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SharedMemory;
 
 import androidx.annotation.NonNull;
 
@@ -34,6 +35,11 @@ import java.util.Collections;
 import java.util.List;
 
 public class ApplicationServiceClient implements ILSPApplicationService, IBinder.DeathRecipient {
+    // keys of the startup config, keep in sync with LSPApplicationService
+    private static final String HOOK_METRICS_KEY = "hookMetrics";
+    private static final String HOOK_SAMPLING_INTERVAL_KEY = "hookSamplingInterval";
+    private static final String FRAMEWORK_INDEX_KEY = "frameworkIndex";
+
     public static ApplicationServiceClient serviceClient = null;
 
     final ILSPApplicationService service;
@@ -102,6 +108,51 @@ public class ApplicationServiceClient implements ILSPApplicationService, IBinder
         return null;
     }
 
+    @Override
+    public Bundle getStartupConfig() {
+        try {
+            var config = service.getStartupConfig();
+            if (config != null) return config;
+        } catch (RemoteException | NullPointerException ignored) {
+        }
+        return new Bundle();
+    }
+
+    public static boolean isHookMetricsEnabled(@NonNull Bundle startupConfig) {
+        return startupConfig.getBoolean(HOOK_METRICS_KEY);
+    }
+
+    public static int getHookSamplingInterval(@NonNull Bundle startupConfig) {
+        return startupConfig.getInt(HOOK_SAMPLING_INTERVAL_KEY);
+    }
+
+    /**
+     * The framework index shared by the daemon, or {@code null} if it has none.
+     */
+    public static SharedMemory getFrameworkIndex(@NonNull Bundle startupConfig) {
+        try {
+            return startupConfig.getParcelable(FRAMEWORK_INDEX_KEY);
+        } catch (RuntimeException ignored) {
+        }
+        return null;
+    }
+
+    @Override
+    public void registerHookMetricsProvider(IBinder provider) {
+        try {
+            service.registerHookMetricsProvider(provider);
+        } catch (RemoteException | NullPointerException ignored) {
+        }
+    }
+
+    @Override
+    public void reportStartupTimeline(String packageName, String[] phases, long[] offsets, long[] durations) {
+        try {
+            service.reportStartupTimeline(packageName, phases, offsets, durations);
+        } catch (RemoteException | NullPointerException ignored) {
+        }
+    }
+
     @Override
     public IBinder asBinder() {
         return service.asBinder();
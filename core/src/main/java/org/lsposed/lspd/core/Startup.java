@@ -34,9 +34,12 @@ import org.lsposed.lspd.hooker.HandleSystemServerProcessHooker;
 import org.lsposed.lspd.hooker.LoadedApkCtorHooker;
 import org.lsposed.lspd.hooker.LoadedApkCreateCLHooker;
 import org.lsposed.lspd.hooker.OpenDexFileHooker;
+import org.lsposed.lspd.impl.HookMetrics;
 import org.lsposed.lspd.impl.LSPosedContext;
 import org.lsposed.lspd.impl.LSPosedHelper;
+import org.lsposed.lspd.impl.StartupTimeline;
 import org.lsposed.lspd.service.ILSPApplicationService;
+import org.lsposed.lspd.util.FrameworkIndex;
 import org.lsposed.lspd.util.Utils;
 
 import java.util.List;
@@ -66,21 +69,57 @@ public class Startup {
     public static void bootstrapXposed() {
         // Initialize the Xposed framework
         try {
-            startBootstrapHook(XposedInit.startsSystemServer);
-            XposedInit.loadLegacyModules();
+            var phase = StartupTimeline.begin("startBootstrapHook");
+            try {
+                startBootstrapHook(XposedInit.startsSystemServer);
+            } finally {
+                StartupTimeline.end(phase);
+            }
+            phase = StartupTimeline.begin("XposedInit.loadLegacyModules");
+            try {
+                XposedInit.loadLegacyModules();
+            } finally {
+                StartupTimeline.end(phase);
+            }
         } catch (Throwable t) {
             Utils.logE("error during Xposed initialization", t);
         }
     }
 
     public static void initXposed(boolean isSystem, String processName, String appDir, ILSPApplicationService service) {
-        // init logger
-        ApplicationServiceClient.Init(service, processName);
-        XposedBridge.initXResources();
-        XposedInit.startsSystemServer = isSystem;
-        LSPosedContext.isSystemServer = isSystem;
-        LSPosedContext.appDir = appDir;
-        LSPosedContext.processName = processName;
-        PrebuiltMethodsDeopter.deoptBootMethods(); // do it once for secondary zygote
+        var startup = StartupTimeline.begin("Startup.initXposed");
+        try {
+            // init logger
+            ApplicationServiceClient.Init(service, processName);
+            var serviceClient = ApplicationServiceClient.serviceClient;
+            if (serviceClient != null) {
+                // one round trip for everything needed before modules load
+                var config = serviceClient.getStartupConfig();
+                var hookMetrics = ApplicationServiceClient.isHookMetricsEnabled(config);
+                var samplingInterval = ApplicationServiceClient.getHookSamplingInterval(config);
+                if (hookMetrics || samplingInterval > 0) {
+                    serviceClient.registerHookMetricsProvider(HookMetrics.enable(hookMetrics, samplingInterval));
+                }
+                FrameworkIndex.init(ApplicationServiceClient.getFrameworkIndex(config));
+            }
+            var phase = StartupTimeline.begin("XposedBridge.initXResources");
+            try {
+                XposedBridge.initXResources();
+            } finally {
+                StartupTimeline.end(phase);
+            }
+            XposedInit.startsSystemServer = isSystem;
+            LSPosedContext.isSystemServer = isSystem;
+            LSPosedContext.appDir = appDir;
+            LSPosedContext.processName = processName;
+            phase = StartupTimeline.begin("PrebuiltMethodsDeopter.deoptBootMethods");
+            try {
+                PrebuiltMethodsDeopter.deoptBootMethods(); // do it once for secondary zygote
+            } finally {
+                StartupTimeline.end(phase);
+            }
+        } finally {
+            StartupTimeline.end(startup);
+        }
     }
 }
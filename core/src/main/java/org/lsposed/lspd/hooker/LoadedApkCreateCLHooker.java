@@ -31,6 +31,7 @@ import android.os.Build;
 import androidx.annotation.NonNull;
 
 import org.lsposed.lspd.impl.LSPosedContext;
+import org.lsposed.lspd.impl.StartupTimeline;
 import org.lsposed.lspd.util.Hookers;
 import org.lsposed.lspd.util.MetaDataReader;
 import org.lsposed.lspd.util.Utils;
@@ -128,8 +129,12 @@ public class LoadedApkCreateCLHooker implements XposedInterface.Hooker {
             }
 
             Hookers.logD("Call handleLoadedPackage: packageName=" + lpparam.packageName + " processName=" + lpparam.processName + " isFirstPackage=" + isFirstPackage + " classLoader=" + lpparam.classLoader + " appInfo=" + lpparam.appInfo);
+            // both dispatchers catch what the callbacks throw
+            var phase = StartupTimeline.begin("XC_LoadPackage.callAll", packageName);
             XC_LoadPackage.callAll(lpparam);
+            StartupTimeline.end(phase);
 
+            phase = StartupTimeline.begin("LSPosedContext.callOnPackageLoaded", packageName);
             LSPosedContext.callOnPackageLoaded(new XposedModuleInterface.PackageLoadedParam() {
                 @NonNull
                 @Override
@@ -164,6 +169,8 @@ public class LoadedApkCreateCLHooker implements XposedInterface.Hooker {
                     return isFirstPackage;
                 }
             });
+            StartupTimeline.end(phase);
+            if (isFirstPackage) StartupTimeline.report(packageName);
         } catch (Throwable t) {
             Hookers.logE("error when hooking LoadedApk#createClassLoader", t);
         } finally {
@@ -0,0 +1,175 @@
+package org.lsposed.lspd.impl;
+
+import androidx.annotation.NonNull;
+
+import org.lsposed.lspd.nativebridge.HookBridge;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+
+/**
+ * Hooks on classes that are not loaded yet, queued by class name and installed once the class is
+ * initialized, before any of its code runs. Requests for classes that are already loaded are
+ * installed right away.
+ *
+ * <p>Initialization is observed natively in ART, so it covers classes loaded by reflection, by
+ * class loaders that override {@link ClassLoader#loadClass(String, boolean)} and classes that ART
+ * resolves itself while running dex code alike. ART only notifies while requests are pending. If
+ * initialization cannot be observed on this device, hooks are installed eagerly instead, which
+ * loads their class.
+ */
+public final class DeferredHooks {
+    private static final class Request {
+        final WeakReference<ClassLoader> loader;
+        final String description;
+        final Consumer<Class<?>> installer;
+
+        Request(ClassLoader loader, String description, Consumer<Class<?>> installer) {
+            this.loader = new WeakReference<>(loader);
+            this.description = description;
+            this.installer = installer;
+        }
+
+        boolean matches(Class<?> clazz) {
+            var definingLoader = clazz.getClassLoader();
+            for (var l = loader.get(); l != null; l = l.getParent()) {
+                if (l == definingLoader) return true;
+                // boot classes may report a null loader, which BootClassLoader stands for
+                if (definingLoader == null && l.getParent() == null
+                        && l.getClass().getName().equals("java.lang.BootClassLoader")) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final Map<String, List<Request>> pending = new ConcurrentHashMap<>();
+    private static final AtomicInteger queued = new AtomicInteger();
+    private static final AtomicInteger needed = new AtomicInteger();
+    // guarded by pending
+    private static boolean observing = false;
+
+    private static volatile Method findLoadedClass;
+
+    private DeferredHooks() {
+    }
+
+    /**
+     * Queues {@code installer} until {@code className} is initialized by {@code classLoader} or one
+     * of its parents. It runs at most once, on the thread that initialized the class.
+     */
+    public static void defer(@NonNull String className, @NonNull ClassLoader classLoader,
+                             @NonNull String description, @NonNull Consumer<Class<?>> installer) {
+        var request = new Request(classLoader, description, installer);
+        boolean observed;
+        synchronized (pending) {
+            if (!observing) observing = HookBridge.setClassInitObserver(DeferredHooks.class);
+            observed = observing;
+            if (observed) pending.computeIfAbsent(className, n -> new ArrayList<>(1)).add(request);
+        }
+        queued.incrementAndGet();
+        if (!observed) {
+            XposedBridge.log("Class initialization is not observable, hooking " + description + " of " + className + " eagerly");
+            var clazz = XposedHelpers.findClassIfExists(className, classLoader);
+            if (clazz == null) {
+                XposedBridge.log("Class " + className + " not found, " + description + " not hooked");
+            } else {
+                install(request, clazz);
+            }
+            return;
+        }
+        // queued first, so that a concurrent initialization either sees the request or is seen here
+        var clazz = findLoadedClass(className, classLoader);
+        if (clazz != null) onClassInitialized(clazz);
+    }
+
+    // Called natively once a class has been initialized, while requests are pending
+    private static void onClassInitialized(Class<?> clazz) {
+        var name = clazz.getName();
+        if (!pending.containsKey(name)) return;
+        var ready = new ArrayList<Request>();
+        synchronized (pending) {
+            var requests = pending.get(name);
+            if (requests == null) return;
+            for (var iterator = requests.iterator(); iterator.hasNext(); ) {
+                var request = iterator.next();
+                if (request.loader.get() == null) {
+                    iterator.remove();
+                } else if (request.matches(clazz)) {
+                    iterator.remove();
+                    ready.add(request);
+                }
+            }
+            if (requests.isEmpty()) pending.remove(name);
+            if (pending.isEmpty() && observing) {
+                HookBridge.setClassInitObserver(null);
+                observing = false;
+            }
+        }
+        for (var request : ready) {
+            install(request, clazz);
+        }
+    }
+
+    private static void install(Request request, Class<?> clazz) {
+        needed.incrementAndGet();
+        try {
+            request.installer.accept(clazz);
+        } catch (Throwable t) {
+            XposedBridge.log(t);
+        }
+    }
+
+    private static Class<?> findLoadedClass(String className, ClassLoader classLoader) {
+        try {
+            if (findLoadedClass == null) {
+                var method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+                method.setAccessible(true);
+                findLoadedClass = method;
+            }
+            for (var l = classLoader; l != null; l = l.getParent()) {
+                var clazz = (Class<?>) findLoadedClass.invoke(l, className);
+                if (clazz != null) return clazz;
+            }
+        } catch (ReflectiveOperationException e) {
+            XposedBridge.log(e);
+        }
+        return null;
+    }
+
+    /**
+     * Hooks that are still waiting for their class, as {@code class: hook} lines.
+     */
+    @NonNull
+    public static List<String> getPending() {
+        var result = new ArrayList<String>();
+        synchronized (pending) {
+            for (var entry : pending.entrySet()) {
+                for (var request : entry.getValue()) {
+                    result.add(entry.getKey() + ": " + request.description);
+                }
+            }
+        }
+        return result;
+    }
+
+    public static int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Deferred hooks whose class has not been loaded so far, which eager hooking would have
+     * installed for nothing.
+     */
+    public static int getNeverNeededCount() {
+        return queued.get() - needed.get();
+    }
+}
@@ -0,0 +1,245 @@
+package org.lsposed.lspd.impl;
+
+import android.os.Binder;
+import android.os.Parcel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Opt-in per hook statistics, enabled by the daemon at process start. Every callback of a hooked
+ * method is accounted to the module that registered it, with its call count, total time and a
+ * log2 latency histogram. When disabled the dispatcher never calls into this class.
+ */
+public class HookMetrics {
+    // keep in sync with LSPApplicationService.HOOK_METRICS_TRANSACTION_CODE
+    public static final int DUMP_TRANSACTION_CODE = 1213220684;
+    // keep in sync with LSPApplicationService.HOOK_SAMPLES_TRANSACTION_CODE
+    public static final int SAMPLES_TRANSACTION_CODE = 1213220685;
+
+    private static final int BUCKETS = 32;
+
+    private static volatile boolean enabled = false;
+
+    private static final Map<ClassLoader, String> modules = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final Map<Member, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Receives the time spent in one callback. The dispatcher reads {@link #cpuTime()} before the
+     * callback and passes it back to {@link #record(long, long)} along with the wall time.
+     */
+    public abstract static class Recorder {
+        public long cpuTime() {
+            return 0;
+        }
+
+        public abstract void record(long duration, long cpuStart);
+    }
+
+    /**
+     * The recorders of a hooked method, aligned with its modern and legacy callbacks.
+     */
+    static final class Recorders {
+        final Recorder[] modernBefore;
+        final Recorder[] modernAfter;
+        final Recorder[] legacyBefore;
+        final Recorder[] legacyAfter;
+
+        Recorders(Recorder[] modernBefore, Recorder[] modernAfter, Recorder[] legacyBefore, Recorder[] legacyAfter) {
+            this.modernBefore = modernBefore;
+            this.modernAfter = modernAfter;
+            this.legacyBefore = legacyBefore;
+            this.legacyAfter = legacyAfter;
+        }
+    }
+
+    // Records a sampled invocation for HookSampler and HookMetrics alike
+    private static final class SampledRecorder extends Recorder {
+        final Recorder sample;
+        final Recorder metric;
+
+        SampledRecorder(Recorder sample, Recorder metric) {
+            this.sample = sample;
+            this.metric = metric;
+        }
+
+        @Override
+        public long cpuTime() {
+            return sample.cpuTime();
+        }
+
+        @Override
+        public void record(long duration, long cpuStart) {
+            sample.record(duration, cpuStart);
+            metric.record(duration, cpuStart);
+        }
+    }
+
+    public static final class Entry extends Recorder {
+        final Member method;
+        final String module;
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+        Entry(Member method, String module) {
+            this.method = method;
+            this.module = module;
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public void record(long duration, long cpuStart) {
+            calls.increment();
+            nanos.add(duration);
+            histogram[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(duration | 1))].increment();
+        }
+
+        private long percentile(long[] counts, long total, double p) {
+            long threshold = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= threshold) return 2L << i;
+            }
+            return 2L << (BUCKETS - 1);
+        }
+
+        private void dump(StringBuilder sb, String processName) {
+            var counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts[i] = histogram[i].sum();
+            }
+            if (total == 0) return;
+            sb.append(nanos.sum()).append('\t')
+                    .append(calls.sum()).append('\t')
+                    .append(percentile(counts, total, 0.5)).append('\t')
+                    .append(percentile(counts, total, 0.99)).append('\t')
+                    .append(module).append('\t')
+                    .append(processName).append('\t')
+                    .append(method).append('\t');
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i != 0) sb.append(',');
+                sb.append(counts[i]);
+            }
+            sb.append('\n');
+        }
+    }
+
+    private static class Provider extends Binder {
+        @Override
+        protected boolean onTransact(int code, @NonNull Parcel data, @Nullable Parcel reply, int flags) {
+            if (reply == null) return false;
+            switch (code) {
+                case DUMP_TRANSACTION_CODE:
+                    reply.writeString(dump());
+                    return true;
+                case SAMPLES_TRANSACTION_CODE:
+                    reply.writeString(HookSampler.drain());
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables the metrics and/or the {@link HookSampler} for this process and returns the binder
+     * the daemon dumps them from. Only hooks installed afterwards are measured.
+     */
+    public static Binder enable(boolean metrics, int samplingInterval) {
+        enabled = metrics;
+        HookSampler.setInterval(samplingInterval);
+        return new Provider();
+    }
+
+    public static void registerModule(ClassLoader loader, String packageName) {
+        modules.put(loader, packageName);
+    }
+
+    static String ownerOf(Object callback) {
+        return ownerOf(callback instanceof LSPosedBridge.HookerCallback ?
+                ((LSPosedBridge.HookerCallback) callback).hooker : callback.getClass());
+    }
+
+    private static String ownerOf(Class<?> clazz) {
+        var loader = clazz.getClassLoader();
+        if (loader == XposedBridge.class.getClassLoader()) return "lspd";
+        var module = modules.get(loader);
+        return module != null ? module : String.valueOf(loader);
+    }
+
+    /**
+     * Resolves the entries of all callbacks of a hooked method, aligned with the callbacks. Called
+     * only when its callbacks change, so the dispatcher itself never looks entries up.
+     */
+    @Nullable
+    static Recorders recordersOf(Member method, Object[] modern, Object[] legacy) {
+        if (!enabled || modern.length + legacy.length == 0) return null;
+        var modernEntries = entriesOf(method, modern);
+        var legacyEntries = entriesOf(method, legacy);
+        // before and after are accounted together
+        return new Recorders(modernEntries, modernEntries, legacyEntries, legacyEntries);
+    }
+
+    /**
+     * The recorders for sampled invocations, which also feed {@code metrics} so that sampling does
+     * not take invocations away from HookMetrics. Either may be {@code null}.
+     */
+    @Nullable
+    static Recorders sampledRecordersOf(@Nullable Recorders samples, @Nullable Recorders metrics) {
+        if (samples == null || metrics == null) return samples;
+        return new Recorders(sampled(samples.modernBefore, metrics.modernBefore), sampled(samples.modernAfter, metrics.modernAfter),
+                sampled(samples.legacyBefore, metrics.legacyBefore), sampled(samples.legacyAfter, metrics.legacyAfter));
+    }
+
+    private static Recorder[] sampled(Recorder[] samples, Recorder[] metrics) {
+        var result = new Recorder[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            result[i] = new SampledRecorder(samples[i], metrics[i]);
+        }
+        return result;
+    }
+
+    private static Entry[] entriesOf(Member method, Object[] callbacks) {
+        var methodEntries = entries.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        var result = new Entry[callbacks.length];
+        for (int i = 0; i < callbacks.length; i++) {
+            result[i] = methodEntries.computeIfAbsent(ownerOf(callbacks[i]), o -> new Entry(method, o));
+        }
+        return result;
+    }
+
+    /**
+     * One line per (hooked method, module), tab separated: total ns, calls, p50 ns, p99 ns,
+     * module, process, method and the comma separated log2 histogram.
+     */
+    public static String dump() {
+        var sb = new StringBuilder();
+        var processName = LSPosedContext.processName;
+        for (var methodEntries : new ArrayList<>(entries.values())) {
+            for (var entry : methodEntries.values()) {
+                entry.dump(sb, processName);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package org.lsposed.lspd.impl;
+
+import android.os.Debug;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Member;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in sampling profiler for hook callbacks, enabled by the daemon at process start. Every Nth
+ * invocation of a hooked method records the wall and thread CPU time of each of its callbacks into
+ * a bounded ring, which the daemon drains as flame graph compatible collapsed stacks of
+ * {@code process;module;hooked method;phase}. When the ring is full the oldest samples are dropped.
+ */
+public final class HookSampler {
+    private static final int CAPACITY = 4096;
+
+    private static volatile int interval = 0;
+
+    private static final AtomicReferenceArray<Sample> ring = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong cursor = new AtomicLong();
+
+    private static final Map<String, Site> sites = new ConcurrentHashMap<>();
+
+    private static final class Sample {
+        final String stack;
+        final long wall;
+        final long cpu;
+
+        Sample(String stack, long wall, long cpu) {
+            this.stack = stack;
+            this.wall = wall;
+            this.cpu = cpu;
+        }
+    }
+
+    private static final class Site extends HookMetrics.Recorder {
+        final String stack;
+
+        Site(String stack) {
+            this.stack = stack;
+        }
+
+        @Override
+        public long cpuTime() {
+            return Debug.threadCpuTimeNanos();
+        }
+
+        @Override
+        public void record(long duration, long cpuStart) {
+            // threadCpuTimeNanos is -1 where unsupported
+            long cpu = cpuStart < 0 ? 0 : Debug.threadCpuTimeNanos() - cpuStart;
+            ring.lazySet((int) (cursor.getAndIncrement() & (CAPACITY - 1)), new Sample(stack, duration, cpu));
+        }
+    }
+
+    private HookSampler() {
+    }
+
+    static void setInterval(int interval) {
+        HookSampler.interval = Math.max(interval, 0);
+    }
+
+    /**
+     * Every how many invocations of a hooked method one is sampled, 0 if sampling is disabled.
+     */
+    static int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Resolves the sites of all callbacks of a hooked method, aligned with the callbacks. Like
+     * {@link HookMetrics#recordersOf}, called only when its callbacks change.
+     */
+    @Nullable
+    static HookMetrics.Recorders recordersOf(Member method, Object[] modern, Object[] legacy) {
+        if (interval == 0 || modern.length + legacy.length == 0) return null;
+        var frame = method.getDeclaringClass().getName() + '.' + method.getName();
+        return new HookMetrics.Recorders(sitesOf(frame, modern, "before"), sitesOf(frame, modern, "after"),
+                sitesOf(frame, legacy, "before"), sitesOf(frame, legacy, "after"));
+    }
+
+    private static Site[] sitesOf(String frame, Object[] callbacks, String phase) {
+        var result = new Site[callbacks.length];
+        for (int i = 0; i < callbacks.length; i++) {
+            var stack = HookMetrics.ownerOf(callbacks[i]).replace(';', '_') + ';' + frame + ';' + phase;
+            result[i] = sites.computeIfAbsent(stack, Site::new);
+        }
+        return result;
+    }
+
+    /**
+     * Takes all samples out of the ring and returns one line per stack, tab separated: the
+     * collapsed stack prefixed by the process, total wall ns, total CPU ns and the sample count.
+     */
+    public static String drain() {
+        var totals = new HashMap<String, long[]>();
+        for (int i = 0; i < CAPACITY; i++) {
+            var sample = ring.getAndSet(i, null);
+            if (sample == null) continue;
+            var total = totals.computeIfAbsent(sample.stack, s -> new long[3]);
+            total[0] += sample.wall;
+            total[1] += sample.cpu;
+            total[2]++;
+        }
+        var sb = new StringBuilder();
+        var processName = LSPosedContext.processName;
+        for (var entry : totals.entrySet()) {
+            var total = entry.getValue();
+            sb.append(processName).append(';').append(entry.getKey()).append('\t')
+                    .append(total[0]).append('\t')
+                    .append(total[1]).append('\t')
+                    .append(total[2]).append('\n');
+        }
+        return sb.toString();
+    }
+}
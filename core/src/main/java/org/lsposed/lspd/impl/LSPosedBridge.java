@@ -5,10 +5,17 @@ import androidx.annotation.NonNull;
 import org.lsposed.lspd.nativebridge.HookBridge;
 import org.lsposed.lspd.util.Utils.Log;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Executable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import de.robv.android.xposed.XposedBridge;
 import io.github.libxposed.api.XposedInterface;
@@ -23,35 +30,165 @@ public class LSPosedBridge {
 
     private static final String castException = "Return value's type from hook callback does not match the hooked method";
 
-    private static final Method getCause;
-
-    static {
-        Method tmp;
-        try {
-            tmp = InvocationTargetException.class.getMethod("getCause");
-        } catch (Throwable e) {
-            tmp = null;
-        }
-        getCause = tmp;
-    }
+    private static final AtomicLong fastPathAllocations = new AtomicLong();
 
     public static class HookerCallback {
         @NonNull
-        final Method beforeInvocation;
+        final Class<?> hooker;
         @NonNull
-        final Method afterInvocation;
+        final MethodHandle beforeInvocation;
+        @NonNull
+        final MethodHandle afterInvocation;
 
         final int beforeParams;
         final int afterParams;
 
-        public HookerCallback(@NonNull Method beforeInvocation, @NonNull Method afterInvocation) {
-            this.beforeInvocation = beforeInvocation;
-            this.afterInvocation = afterInvocation;
+        // dummyCallback is the only method of LSPosedBridge that can be used as a callback
+        final boolean hasAfter;
+
+        // Resolved once at hook time, so that dispatching skips the access checks, argument
+        // array and InvocationTargetException of reflective calls
+        public HookerCallback(@NonNull Class<?> hooker, @NonNull Method beforeInvocation, @NonNull Method afterInvocation) throws IllegalAccessException {
+            this.hooker = hooker;
+            beforeInvocation.setAccessible(true);
+            afterInvocation.setAccessible(true);
+            var lookup = MethodHandles.lookup();
+            this.beforeInvocation = lookup.unreflect(beforeInvocation);
+            this.afterInvocation = lookup.unreflect(afterInvocation);
             this.beforeParams = beforeInvocation.getParameterCount();
             this.afterParams = afterInvocation.getParameterCount();
+            this.hasAfter = afterInvocation.getDeclaringClass() != LSPosedBridge.class;
         }
     }
 
+    private static final class CallbackSnapshot {
+        final Object[] modern;
+        final Object[] legacy;
+        final boolean beforeOnly;
+        // null unless HookMetrics is enabled
+        final HookMetrics.Recorders metrics;
+        // null unless HookSampler is enabled, also records into metrics if that is set
+        final HookMetrics.Recorders samples;
+        final int sampleInterval;
+
+        CallbackSnapshot(Object[] modern, Object[] legacy, boolean beforeOnly,
+                         HookMetrics.Recorders metrics, HookMetrics.Recorders samples, int sampleInterval) {
+            this.modern = modern;
+            this.legacy = legacy;
+            this.beforeOnly = beforeOnly;
+            this.metrics = metrics;
+            this.samples = samples;
+            this.sampleInterval = sampleInterval;
+        }
+    }
+
+    private static final class CallbackFrame {
+        final LSPosedHookCallback<Executable> callback = new LSPosedHookCallback<>();
+        // one buffer per arity, so that hooked methods of different arity do not replace each
+        // other's on every call
+        Object[][] argsBuffers = new Object[0][];
+        Object[] argsBuffer;
+
+        Object[] args(int length) {
+            if (length >= argsBuffers.length) {
+                fastPathAllocations.incrementAndGet();
+                var newBuffers = new Object[length + 1][];
+                System.arraycopy(argsBuffers, 0, newBuffers, 0, argsBuffers.length);
+                argsBuffers = newBuffers;
+            }
+            var buffer = argsBuffers[length];
+            if (buffer == null) {
+                fastPathAllocations.incrementAndGet();
+                buffer = argsBuffers[length] = new Object[length];
+            }
+            return argsBuffer = buffer;
+        }
+
+        void clear() {
+            callback.method = null;
+            callback.thisObject = null;
+            callback.args = null;
+            callback.result = null;
+            callback.throwable = null;
+            callback.isSkipped = false;
+            if (argsBuffer != null) {
+                for (int i = 0; i < argsBuffer.length; ++i) {
+                    argsBuffer[i] = null;
+                }
+                argsBuffer = null;
+            }
+        }
+    }
+
+    // Callbacks of the before-only fast path are reused per thread. A hooked method may be
+    // re-entered from inside a callback, so every nesting level gets its own frame. A callback and
+    // its args are only valid until the hooker returns, after which the frame is cleared and
+    // handed to the next call.
+    private static final class CallbackPool {
+        // Classes whose methods get() and acquire() call, together with their nested classes such
+        // as ThreadLocal.ThreadLocalMap. A hooked one would re-enter the pool before it is set up
+        // and recurse endlessly, so methods declared by them never take the fast path. A per-thread
+        // busy flag cannot guard this, since reading it goes through the ThreadLocal it protects.
+        private static final Class<?>[] dependencies = {
+                Thread.class, ThreadLocal.class, Reference.class, WeakReference.class,
+                AtomicLong.class, System.class,
+        };
+
+        static boolean dependsOn(Class<?> clazz) {
+            for (var c = clazz; c != null; c = c.getEnclosingClass()) {
+                for (var dependency : dependencies) {
+                    if (c == dependency) return true;
+                }
+            }
+            return false;
+        }
+
+
+        private static final ThreadLocal<CallbackPool> pools = new ThreadLocal<>();
+
+        private CallbackFrame[] frames = new CallbackFrame[4];
+        private int depth = 0;
+
+        static CallbackPool get() {
+            var pool = pools.get();
+            if (pool == null) {
+                fastPathAllocations.incrementAndGet();
+                pool = new CallbackPool();
+                pools.set(pool);
+            }
+            return pool;
+        }
+
+        CallbackFrame acquire() {
+            if (depth == frames.length) {
+                fastPathAllocations.incrementAndGet();
+                var newFrames = new CallbackFrame[frames.length * 2];
+                System.arraycopy(frames, 0, newFrames, 0, frames.length);
+                frames = newFrames;
+            }
+            var frame = frames[depth];
+            if (frame == null) {
+                fastPathAllocations.incrementAndGet();
+                frame = frames[depth] = new CallbackFrame();
+            }
+            depth++;
+            return frame;
+        }
+
+        void release(CallbackFrame frame) {
+            frame.clear();
+            depth--;
+        }
+    }
+
+    /**
+     * Number of objects allocated by the before-only fast path of hooked methods. It only grows
+     * while threads warm up their callback pools and stays constant in steady state.
+     */
+    public static long getFastPathAllocations() {
+        return fastPathAllocations.get();
+    }
+
     public static void log(String text) {
         Log.i(TAG, text);
     }
@@ -62,10 +199,21 @@ public class LSPosedBridge {
     }
 
     public static class NativeHooker<T extends Executable> {
+        private static final CallbackSnapshot EMPTY_SNAPSHOT = new CallbackSnapshot(new Object[0], new Object[0], false, null, null, 0);
+
         private final Object params;
 
+        // false for methods the fast path itself calls, see CallbackPool.dependencies
+        private final boolean allowFastPath;
+
+        private volatile CallbackSnapshot callbacksSnapshot = EMPTY_SNAPSHOT;
+
+        // Racy on purpose, a lost increment only shifts which invocation gets sampled
+        private int invocations;
+
         private NativeHooker(Executable method) {
             var isStatic = Modifier.isStatic(method.getModifiers());
+            allowFastPath = !CallbackPool.dependsOn(method.getDeclaringClass());
             Object returnType;
             if (method instanceof Method) {
                 returnType = ((Method) method).getReturnType();
@@ -76,19 +224,48 @@ public class LSPosedBridge {
                     method,
                     returnType,
                     isStatic,
+                    getExecutableShorty(method),
+                    method.getParameterTypes(),
             };
         }
 
+        // Called by HookBridge every time the callbacks of this method change
+        private void publishCallbacks(Object[] modern, Object[] legacy) {
+            boolean beforeOnly = allowFastPath && legacy.length == 0 && modern.length != 0;
+            for (var hooker : modern) {
+                beforeOnly &= !((HookerCallback) hooker).hasAfter;
+            }
+            var method = (Executable) ((Object[]) params)[0];
+            var metrics = HookMetrics.recordersOf(method, modern, legacy);
+            var samples = HookMetrics.sampledRecordersOf(HookSampler.recordersOf(method, modern, legacy), metrics);
+            callbacksSnapshot = new CallbackSnapshot(modern, legacy, beforeOnly, metrics, samples,
+                    samples != null ? HookSampler.getInterval() : 0);
+        }
+
         // This method is quite critical. We should try not to use system methods to avoid
         // endless recursive
         public Object callback(Object[] args) throws Throwable {
-            LSPosedHookCallback<T> callback = new LSPosedHookCallback<>();
-
             var array = ((Object[]) params);
 
             var method = (T) array[0];
             var returnType = (Class<?>) array[1];
             var isStatic = (Boolean) array[2];
+            var shorty = (char[]) array[3];
+            var parameterTypes = (Class<?>[]) array[4];
+
+            var callbacksSnapshot = this.callbacksSnapshot;
+            var recorders = callbacksSnapshot.metrics;
+            // the recorders of a sampled invocation feed HookMetrics as well
+            if (callbacksSnapshot.sampleInterval != 0 && ++invocations % callbacksSnapshot.sampleInterval == 0) {
+                recorders = callbacksSnapshot.samples;
+            }
+            if (callbacksSnapshot.beforeOnly) {
+                return callbackBeforeOnly(method, returnType, isStatic, shorty, parameterTypes, args, callbacksSnapshot.modern, recorders != null ? recorders.modernBefore : null);
+            }
+            Object[] modernSnapshot = callbacksSnapshot.modern;
+            Object[] legacySnapshot = callbacksSnapshot.legacy;
+
+            LSPosedHookCallback<T> callback = new LSPosedHookCallback<>();
 
             callback.method = method;
 
@@ -104,30 +281,25 @@ public class LSPosedBridge {
                 }
             }
 
-            Object[][] callbacksSnapshot = HookBridge.callbackSnapshot(HookerCallback.class, method);
-            Object[] modernSnapshot = callbacksSnapshot[0];
-            Object[] legacySnapshot = callbacksSnapshot[1];
-
             if (modernSnapshot.length == 0 && legacySnapshot.length == 0) {
-                try {
-                    return HookBridge.invokeOriginalMethod(method, callback.thisObject, callback.args);
-                } catch (InvocationTargetException ite) {
-                    throw (Throwable) HookBridge.invokeOriginalMethod(getCause, ite);
-                }
+                return HookBridge.invokeOriginal(method, shorty, parameterTypes, callback.thisObject, callback.args);
             }
 
             Object[] ctxArray = new Object[modernSnapshot.length];
             XposedBridge.LegacyApiSupport<T> legacy = null;
 
             // call "before method" callbacks
+            var metrics = recorders != null ? recorders.modernBefore : null;
             int beforeIdx;
             for (beforeIdx = 0; beforeIdx < modernSnapshot.length; beforeIdx++) {
+                long start = metrics != null ? System.nanoTime() : 0;
+                long cpuStart = metrics != null ? metrics[beforeIdx].cpuTime() : 0;
                 try {
                     var hooker = (HookerCallback) modernSnapshot[beforeIdx];
                     if (hooker.beforeParams == 0) {
-                        ctxArray[beforeIdx] = hooker.beforeInvocation.invoke(null);
+                        ctxArray[beforeIdx] = hooker.beforeInvocation.invoke();
                     } else {
-                        ctxArray[beforeIdx] = hooker.beforeInvocation.invoke(null, callback);
+                        ctxArray[beforeIdx] = hooker.beforeInvocation.invoke(callback);
                     }
                 } catch (Throwable t) {
                     LSPosedBridge.log(t);
@@ -136,6 +308,8 @@ public class LSPosedBridge {
                     callback.setResult(null);
                     callback.isSkipped = false;
                     continue;
+                } finally {
+                    if (metrics != null) metrics[beforeIdx].record(System.nanoTime() - start, cpuStart);
                 }
 
                 if (callback.isSkipped) {
@@ -147,33 +321,36 @@ public class LSPosedBridge {
 
             if (!callback.isSkipped && legacySnapshot.length != 0) {
                 // TODO: Separate classloader
-                legacy = new XposedBridge.LegacyApiSupport<>(callback, legacySnapshot);
+                legacy = new XposedBridge.LegacyApiSupport<>(callback, legacySnapshot,
+                        recorders != null ? recorders.legacyBefore : null, recorders != null ? recorders.legacyAfter : null);
                 legacy.handleBefore();
             }
 
             // call original method if not requested otherwise
             if (!callback.isSkipped) {
                 try {
-                    var result = HookBridge.invokeOriginalMethod(method, callback.thisObject, callback.args);
+                    var result = HookBridge.invokeOriginal(method, shorty, parameterTypes, callback.thisObject, callback.args);
                     callback.setResult(result);
-                } catch (InvocationTargetException e) {
-                    var throwable = (Throwable) HookBridge.invokeOriginalMethod(getCause, e);
+                } catch (Throwable throwable) {
                     callback.setThrowable(throwable);
                 }
             }
 
             // call "after method" callbacks
+            metrics = recorders != null ? recorders.modernAfter : null;
             for (int afterIdx = beforeIdx - 1; afterIdx >= 0; afterIdx--) {
                 Object lastResult = callback.getResult();
                 Throwable lastThrowable = callback.getThrowable();
                 var hooker = (HookerCallback) modernSnapshot[afterIdx];
+                long start = metrics != null ? System.nanoTime() : 0;
+                long cpuStart = metrics != null ? metrics[afterIdx].cpuTime() : 0;
                 try {
                     if (hooker.afterParams == 0) {
-                        hooker.afterInvocation.invoke(null);
+                        hooker.afterInvocation.invoke();
                     } else if (hooker.afterParams == 1) {
-                        hooker.afterInvocation.invoke(null, callback);
+                        hooker.afterInvocation.invoke(callback);
                     } else {
-                        hooker.afterInvocation.invoke(null, callback, ctxArray[afterIdx]);
+                        hooker.afterInvocation.invoke(callback, ctxArray[afterIdx]);
                     }
                 } catch (Throwable t) {
                     LSPosedBridge.log(t);
@@ -184,6 +361,8 @@ public class LSPosedBridge {
                     } else {
                         callback.setThrowable(lastThrowable);
                     }
+                } finally {
+                    if (metrics != null) metrics[afterIdx].record(System.nanoTime() - start, cpuStart);
                 }
             }
 
@@ -203,20 +382,123 @@ public class LSPosedBridge {
                 return result;
             }
         }
+
+        // Same as callback, but for methods hooked only by modern hookers without after
+        // callbacks: the callback object is reused and neither contexts nor after loops exist.
+        private Object callbackBeforeOnly(T method, Class<?> returnType, boolean isStatic, char[] shorty, Class<?>[] parameterTypes, Object[] args, Object[] modernSnapshot, HookMetrics.Recorder[] metrics) throws Throwable {
+            var pool = CallbackPool.get();
+            var frame = pool.acquire();
+            try {
+                var callback = frame.callback;
+                callback.method = method;
+                if (isStatic) {
+                    callback.thisObject = null;
+                    callback.args = args;
+                } else {
+                    callback.thisObject = args[0];
+                    callback.args = frame.args(args.length - 1);
+                    //noinspection ManualArrayCopy
+                    for (int i = 0; i < args.length - 1; ++i) {
+                        callback.args[i] = args[i + 1];
+                    }
+                }
+
+                for (int i = 0; i < modernSnapshot.length; i++) {
+                    long start = metrics != null ? System.nanoTime() : 0;
+                    long cpuStart = metrics != null ? metrics[i].cpuTime() : 0;
+                    try {
+                        var hooker = (HookerCallback) modernSnapshot[i];
+                        if (hooker.beforeParams == 0) {
+                            hooker.beforeInvocation.invoke();
+                        } else {
+                            hooker.beforeInvocation.invoke(callback);
+                        }
+                    } catch (Throwable t) {
+                        LSPosedBridge.log(t);
+
+                        // reset result (ignoring what the unexpectedly exiting callback did)
+                        callback.setResult(null);
+                        callback.isSkipped = false;
+                        continue;
+                    } finally {
+                        if (metrics != null) metrics[i].record(System.nanoTime() - start, cpuStart);
+                    }
+
+                    if (callback.isSkipped) {
+                        break;
+                    }
+                }
+
+                if (!callback.isSkipped) {
+                    return HookBridge.invokeOriginal(method, shorty, parameterTypes, callback.thisObject, callback.args);
+                }
+
+                var t = callback.getThrowable();
+                if (t != null) {
+                    throw t;
+                }
+                var result = callback.getResult();
+                if (returnType != null && !returnType.isPrimitive() && !HookBridge.instanceOf(result, returnType)) {
+                    throw new ClassCastException(castException);
+                }
+                return result;
+            } finally {
+                pool.release(frame);
+            }
+        }
+    }
+
+    private static char getTypeShorty(Class<?> type) {
+        if (type == int.class) {
+            return 'I';
+        } else if (type == long.class) {
+            return 'J';
+        } else if (type == float.class) {
+            return 'F';
+        } else if (type == double.class) {
+            return 'D';
+        } else if (type == boolean.class) {
+            return 'Z';
+        } else if (type == byte.class) {
+            return 'B';
+        } else if (type == char.class) {
+            return 'C';
+        } else if (type == short.class) {
+            return 'S';
+        } else if (type == void.class) {
+            return 'V';
+        } else {
+            return 'L';
+        }
+    }
+
+    static char[] getExecutableShorty(Executable executable) {
+        var parameterTypes = executable.getParameterTypes();
+        var shorty = new char[parameterTypes.length + 1];
+        shorty[0] = getTypeShorty(executable instanceof Method ? ((Method) executable).getReturnType() : void.class);
+        for (int i = 1; i < shorty.length; i++) {
+            shorty[i] = getTypeShorty(parameterTypes[i - 1]);
+        }
+        return shorty;
     }
 
     public static void dummyCallback() {
     }
 
-    public static <T extends Executable> XposedInterface.MethodUnhooker<T>
-    doHook(T hookMethod, int priority, Class<? extends XposedInterface.Hooker> hooker) {
+    private static void checkHookable(Executable hookMethod) {
         if (Modifier.isAbstract(hookMethod.getModifiers())) {
             throw new IllegalArgumentException("Cannot hook abstract methods: " + hookMethod);
         } else if (hookMethod.getDeclaringClass().getClassLoader() == LSPosedContext.class.getClassLoader()) {
             throw new IllegalArgumentException("Do not allow hooking inner methods");
         } else if (hookMethod.getDeclaringClass() == Method.class && hookMethod.getName().equals("invoke")) {
             throw new IllegalArgumentException("Cannot hook Method.invoke");
-        } else if (hooker == null) {
+        } else if (hookMethod.getDeclaringClass() == MethodHandle.class) {
+            throw new IllegalArgumentException("Cannot hook MethodHandle");
+        }
+    }
+
+    private static HookerCallback createCallback(Class<? extends XposedInterface.Hooker> hooker) {
+        if (hooker == null) {
             throw new IllegalArgumentException("hooker should not be null!");
         } else if (hooker.getAnnotation(XposedHooker.class) == null) {
             throw new IllegalArgumentException("Hooker should be annotated with @XposedHooker");
@@ -274,25 +556,63 @@ public class LSPosedBridge {
                     throw new IllegalArgumentException("BeforeInvocation and AfterInvocation method format is invalid");
                 }
             }
-        } catch (NoSuchMethodException e) {
+            return new LSPosedBridge.HookerCallback(hooker, beforeInvocation, afterInvocation);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new HookFailedError(e);
         }
+    }
 
-        var callback = new LSPosedBridge.HookerCallback(beforeInvocation, afterInvocation);
-        if (HookBridge.hookMethod(true, hookMethod, LSPosedBridge.NativeHooker.class, priority, callback)) {
-            return new XposedInterface.MethodUnhooker<>() {
-                @NonNull
-                @Override
-                public T getOrigin() {
-                    return hookMethod;
-                }
+    private static <T extends Executable> XposedInterface.MethodUnhooker<T>
+    newUnhooker(T hookMethod, HookerCallback callback) {
+        return new XposedInterface.MethodUnhooker<>() {
+            @NonNull
+            @Override
+            public T getOrigin() {
+                return hookMethod;
+            }
 
-                @Override
-                public void unhook() {
-                    HookBridge.unhookMethod(true, hookMethod, callback);
-                }
-            };
+            @Override
+            public void unhook() {
+                HookBridge.unhookMethod(true, hookMethod, callback);
+            }
+        };
+    }
+
+    /**
+     * Hooks a method with a modern hooker. The callbacks it receives are only valid during the
+     * hooker method, see {@link LSPosedHookCallback}.
+     */
+    public static <T extends Executable> XposedInterface.MethodUnhooker<T>
+    doHook(T hookMethod, int priority, Class<? extends XposedInterface.Hooker> hooker) {
+        checkHookable(hookMethod);
+        var callback = createCallback(hooker);
+        if (HookBridge.hookMethod(true, hookMethod, LSPosedBridge.NativeHooker.class, priority, callback)) {
+            return newUnhooker(hookMethod, callback);
         }
         throw new HookFailedError("Cannot hook " + hookMethod);
     }
+
+    /**
+     * Hooks all methods with the same hooker in a single native call. Every method is validated
+     * before any of them is hooked. The returned list is aligned with {@code hookMethods} and holds
+     * {@code null} for the methods that could not be hooked.
+     */
+    public static <T extends Executable> List<XposedInterface.MethodUnhooker<T>>
+    doHook(List<T> hookMethods, int priority, Class<? extends XposedInterface.Hooker> hooker) {
+        var methods = hookMethods.toArray(new Executable[0]);
+        for (var method : methods) {
+            checkHookable(method);
+        }
+        var callback = createCallback(hooker);
+        var priorities = new int[methods.length];
+        Arrays.fill(priorities, priority);
+        var callbacks = new Object[methods.length];
+        Arrays.fill(callbacks, callback);
+        var hooked = HookBridge.hookMethods(true, methods, LSPosedBridge.NativeHooker.class, priorities, callbacks);
+        var unhookers = new ArrayList<XposedInterface.MethodUnhooker<T>>(methods.length);
+        for (int i = 0; i < methods.length; i++) {
+            unhookers.add(hooked[i] ? newUnhooker(hookMethods.get(i), callback) : null);
+        }
+        return unhookers;
+    }
 }
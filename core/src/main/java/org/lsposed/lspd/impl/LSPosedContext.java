@@ -31,6 +31,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -102,6 +103,7 @@ public class LSPosedContext implements XposedInterface {
                 Log.e(TAG, "  This may cause strange issues and must be fixed by the module developer.");
                 return false;
             }
+            HookMetrics.registerModule(mcl, module.packageName);
             var ctx = new LSPosedContext(module.packageName, module.applicationInfo, module.service);
             for (var entry : module.file.moduleClassNames) {
                 var moduleClass = mcl.loadClass(entry);
@@ -188,6 +190,20 @@ public class LSPosedContext implements XposedInterface {
         return LSPosedBridge.doHook(origin, priority, hooker);
     }
 
+    /**
+     * Hooks all {@code origins} with the same hooker, installing the hooks in one native call.
+     * The result is aligned with {@code origins}, {@code null} marks a method that could not be hooked.
+     */
+    @NonNull
+    public <T extends Executable> List<MethodUnhooker<T>> hook(@NonNull List<T> origins, @NonNull Class<? extends Hooker> hooker) {
+        return LSPosedBridge.doHook(origins, PRIORITY_DEFAULT, hooker);
+    }
+
+    @NonNull
+    public <T extends Executable> List<MethodUnhooker<T>> hook(@NonNull List<T> origins, int priority, @NonNull Class<? extends Hooker> hooker) {
+        return LSPosedBridge.doHook(origins, priority, hooker);
+    }
+
     private static boolean doDeoptimize(@NonNull Executable method) {
         if (Modifier.isAbstract(method.getModifiers())) {
             throw new IllegalArgumentException("Cannot deoptimize abstract methods: " + method);
@@ -213,47 +229,13 @@ public class LSPosedContext implements XposedInterface {
         return HookBridge.invokeOriginalMethod(method, thisObject, args);
     }
 
-    private static char getTypeShorty(Class<?> type) {
-        if (type == int.class) {
-            return 'I';
-        } else if (type == long.class) {
-            return 'J';
-        } else if (type == float.class) {
-            return 'F';
-        } else if (type == double.class) {
-            return 'D';
-        } else if (type == boolean.class) {
-            return 'Z';
-        } else if (type == byte.class) {
-            return 'B';
-        } else if (type == char.class) {
-            return 'C';
-        } else if (type == short.class) {
-            return 'S';
-        } else if (type == void.class) {
-            return 'V';
-        } else {
-            return 'L';
-        }
-    }
-
-    private static char[] getExecutableShorty(Executable executable) {
-        var parameterTypes = executable.getParameterTypes();
-        var shorty = new char[parameterTypes.length + 1];
-        shorty[0] = getTypeShorty(executable instanceof Method ? ((Method) executable).getReturnType() : void.class);
-        for (int i = 1; i < shorty.length; i++) {
-            shorty[i] = getTypeShorty(parameterTypes[i - 1]);
-        }
-        return shorty;
-    }
-
     @Nullable
     @Override
     public Object invokeSpecial(@NonNull Method method, @NonNull Object thisObject, Object... args) throws InvocationTargetException, IllegalArgumentException, IllegalAccessException {
         if (Modifier.isStatic(method.getModifiers())) {
             throw new IllegalArgumentException("Cannot invoke special on static method: " + method);
         }
-        return HookBridge.invokeSpecialMethod(method, getExecutableShorty(method), method.getDeclaringClass(), thisObject, args);
+        return HookBridge.invokeSpecialMethod(method, LSPosedBridge.getExecutableShorty(method), method.getDeclaringClass(), thisObject, args);
     }
 
     @NonNull
@@ -272,7 +254,7 @@ public class LSPosedContext implements XposedInterface {
             throw new IllegalArgumentException(subClass + " is not inherited from " + superClass);
         }
         var obj = HookBridge.allocateObject(subClass);
-        HookBridge.invokeSpecialMethod(constructor, getExecutableShorty(constructor), superClass, obj, args);
+        HookBridge.invokeSpecialMethod(constructor, LSPosedBridge.getExecutableShorty(constructor), superClass, obj, args);
         return obj;
     }
 
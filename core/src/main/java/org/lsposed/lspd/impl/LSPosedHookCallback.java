@@ -8,6 +8,12 @@ import java.lang.reflect.Member;
 
 import io.github.libxposed.api.XposedInterface;
 
+/**
+ * The callback passed to modern hookers. It is only valid while the hooker method it was passed
+ * to runs: methods hooked only by before callbacks reuse one instance per thread and nesting
+ * level, including the array returned by {@link #getArgs()}, and clear it once the hooked call
+ * returns. Hookers that keep the arguments past their callback have to copy them.
+ */
 public class LSPosedHookCallback<T extends Executable> implements XposedInterface.BeforeHookCallback, XposedInterface.AfterHookCallback {
 
     public Member method;
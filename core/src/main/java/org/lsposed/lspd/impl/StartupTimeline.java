@@ -0,0 +1,94 @@
+package org.lsposed.lspd.impl;
+
+import static org.lsposed.lspd.core.ApplicationServiceClient.serviceClient;
+
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timeline of the injection phases of this process. Phases are recorded with monotonic timestamps
+ * into preallocated arrays and mirrored as {@link Trace} sections, so that they also show up in
+ * systrace and Perfetto. Once the first package of the process has been loaded, the timeline is
+ * sent to the daemon, which aggregates it per package.
+ *
+ * <p>Recording neither locks nor allocates. Phases beyond {@link #CAPACITY} are only traced.
+ */
+public final class StartupTimeline {
+    private static final int CAPACITY = 64;
+    // Trace sections are truncated by the platform beyond this
+    private static final int MAX_SECTION_NAME = 127;
+
+    private static final String[] phases = new String[CAPACITY];
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] ends = new long[CAPACITY];
+    private static final AtomicInteger next = new AtomicInteger();
+    private static final AtomicBoolean reported = new AtomicBoolean();
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Starts a phase on this thread, to be ended by {@link #end(int)} with the returned token on
+     * the same thread, in the reverse order phases were started.
+     */
+    public static int begin(@NonNull String phase) {
+        traceSection(phase);
+        return record(phase);
+    }
+
+    /**
+     * Like {@link #begin(String)}, but the trace section is qualified with {@code detail}, e.g. the
+     * package being loaded. The daemon only sees {@code phase}, which keeps its phase names bounded;
+     * phases reported under the same name are added up.
+     */
+    public static int begin(@NonNull String phase, @NonNull String detail) {
+        traceSection(phase + " " + detail);
+        return record(phase);
+    }
+
+    private static void traceSection(String name) {
+        Trace.beginSection(name.length() > MAX_SECTION_NAME ? name.substring(0, MAX_SECTION_NAME) : name);
+    }
+
+    private static int record(String phase) {
+        int index = next.getAndIncrement();
+        if (index >= CAPACITY) return -1;
+        phases[index] = phase;
+        starts[index] = System.nanoTime();
+        return index;
+    }
+
+    public static void end(int token) {
+        if (token >= 0) ends[token] = System.nanoTime();
+        Trace.endSection();
+    }
+
+    /**
+     * Sends the finished phases to the daemon, once per process. The timeline is relative to the
+     * start of the first phase.
+     */
+    public static void report(@NonNull String packageName) {
+        if (serviceClient == null || !reported.compareAndSet(false, true)) return;
+        int count = Math.min(next.get(), CAPACITY);
+        var names = new String[count];
+        var offsets = new long[count];
+        var durations = new long[count];
+        int finished = 0;
+        for (int i = 0; i < count; i++) {
+            long end = ends[i];
+            // still running, or started concurrently and not published yet
+            if (end == 0 || phases[i] == null) continue;
+            names[finished] = phases[i];
+            offsets[finished] = starts[i] - starts[0];
+            durations[finished] = end - starts[i];
+            finished++;
+        }
+        serviceClient.reportStartupTimeline(packageName, Arrays.copyOf(names, finished),
+                Arrays.copyOf(offsets, finished), Arrays.copyOf(durations, finished));
+    }
+}
@@ -8,6 +8,8 @@ import dalvik.annotation.optimization.FastNative;
 public class HookBridge {
     public static native boolean hookMethod(boolean useModernApi, Executable hookMethod, Class<?> hooker, int priority, Object callback);
 
+    public static native boolean[] hookMethods(boolean useModernApi, Executable[] hookMethods, Class<?> hooker, int[] priorities, Object[] callbacks);
+
     public static native boolean unhookMethod(boolean useModernApi, Executable hookMethod, Object callback);
 
     public static native boolean deoptimizeMethod(Executable method);
@@ -16,6 +18,8 @@ public class HookBridge {
 
     public static native Object invokeOriginalMethod(Executable method, Object thisObject, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException;
 
+    public static native Object invokeOriginal(Executable method, char[] shorty, Class<?>[] parameterTypes, Object thisObject, Object... args) throws Throwable;
+
     public static native <T> Object invokeSpecialMethod(Executable method, char[] shorty, Class<T> clazz, Object thisObject, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException;
 
     @FastNative
@@ -24,5 +28,11 @@ public class HookBridge {
     @FastNative
     public static native boolean setTrusted(Object cookie);
 
-    public static native Object[][] callbackSnapshot(Class<?> hooker_callback, Executable method);
+    /**
+     * Has ART call the static {@code onClassInitialized(Class)} of {@code observer} after every
+     * class initialization, or stops it for {@code null}. The first observer is kept for the
+     * life of the process, later ones only switch observation back on. Returns false if
+     * initialization cannot be observed.
+     */
+    public static native boolean setClassInitObserver(Class<?> observer);
 }
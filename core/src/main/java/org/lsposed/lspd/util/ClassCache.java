@@ -0,0 +1,147 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.lang3.ClassUtilsX;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of {@link ClassUtilsX#getClass(ClassLoader, String, boolean)} by class loader and name,
+ * without initializing the classes. Names are parsed and delegated through the loader hierarchy
+ * once, and names that were not found are remembered for {@link #MISS_TTL_NANOS}. That matters
+ * most on ART, where every miss throws, and a missing nested class name throws once more for each
+ * enclosing part; modules tend to probe for many missing names in a burst while hooking a package.
+ *
+ * <p>Caches are kept per class loader in a weak identity map and only hold their classes weakly,
+ * so they go away with their loader. Misses expire because loaders can gain classes later, e.g.
+ * through {@code BaseDexClassLoader.addDexPath} or multidex installation, after which a name
+ * reported as missing is found again once its miss has expired.
+ */
+public final class ClassCache {
+    private static final WeakIdentityMap<ClassLoader, ConcurrentHashMap<String, Object>> caches = new WeakIdentityMap<>();
+    // the boot class loader is null, which the weak map cannot hold
+    private static final ConcurrentHashMap<String, Object> bootCache = new ConcurrentHashMap<>();
+    private static final long MISS_TTL_NANOS = 1_000_000_000L;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder negativeHits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder missNanos = new LongAdder();
+
+    // Cached miss, keeping only the message so that no stack trace pins the loader
+    private static final class Missing {
+        final String message;
+        final long expiry;
+
+        Missing(String message, long expiry) {
+            this.message = message;
+            this.expiry = expiry;
+        }
+    }
+
+    private ClassCache() {
+    }
+
+    /**
+     * Looks up a class like {@link ClassUtilsX#getClass(ClassLoader, String, boolean)} without
+     * initializing it.
+     *
+     * @throws ClassNotFoundException if it was not found, now or by an earlier lookup.
+     */
+    @NonNull
+    public static Class<?> getClass(@Nullable ClassLoader classLoader, @NonNull String className) throws ClassNotFoundException {
+        var result = lookup(classLoader, className);
+        if (result instanceof Missing) throw new ClassNotFoundException(((Missing) result).message);
+        return (Class<?>) result;
+    }
+
+    /**
+     * Like {@link #getClass}, but returns {@code null} instead of throwing, which spares cached
+     * misses the exception.
+     */
+    @Nullable
+    public static Class<?> findClass(@Nullable ClassLoader classLoader, @NonNull String className) {
+        var result = lookup(classLoader, className);
+        return result instanceof Missing ? null : (Class<?>) result;
+    }
+
+    private static Object lookup(ClassLoader classLoader, String className) {
+        var cache = classLoader == null ? bootCache : caches.computeIfAbsent(classLoader, l -> new ConcurrentHashMap<>());
+        var cached = cache.get(className);
+        if (cached instanceof WeakReference) {
+            var clazz = ((WeakReference<?>) cached).get();
+            if (clazz != null) {
+                hits.increment();
+                return clazz;
+            }
+        } else if (cached != null && System.nanoTime() - ((Missing) cached).expiry < 0) {
+            negativeHits.increment();
+            return cached;
+        }
+        misses.increment();
+        long start = System.nanoTime();
+        Object result;
+        try {
+            var clazz = ClassUtilsX.getClass(classLoader, className, false);
+            cache.put(className, new WeakReference<>(clazz));
+            result = clazz;
+        } catch (ClassNotFoundException e) {
+            cache.put(className, result = new Missing(e.getMessage(), System.nanoTime() + MISS_TTL_NANOS));
+        }
+        missNanos.add(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Lookups answered with a cached class.
+     */
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Lookups answered with a cached miss, each of which would have thrown at least once.
+     */
+    public static long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * Lookups that went to the class loader.
+     */
+    public static long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Time spent in lookups that went to the class loader. Together with the hit counts, this
+     * estimates the time the cache saved.
+     */
+    public static long getMissNanos() {
+        return missNanos.sum();
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.apache.commons.lang3.ClassUtilsX;
+import org.apache.commons.lang3.reflect.MemberUtilsX;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * The declared members of one class, indexed by name and built once from
+ * {@link Class#getDeclaredFields()}, {@link Class#getDeclaredMethods()} and
+ * {@link Class#getDeclaredConstructors()}. Each kind is indexed on first use. Lookups of an
+ * indexed table neither lock nor allocate.
+ *
+ * <p>Tables are kept per class in a weak identity map and only softly referenced, as the members
+ * they hold reference their class in turn. Classes, and so class loaders, that are no longer used
+ * are collected along with their tables.
+ */
+public final class ClassMembers {
+    private static final WeakIdentityMap<Class<?>, SoftReference<ClassMembers>> tables = new WeakIdentityMap<>();
+
+    private final Class<?> clazz;
+
+    private volatile Map<String, Field> fields;
+    private volatile Map<String, Executables<Method>> methods;
+    private volatile Executables<Constructor<?>> constructors;
+
+    // Methods fetched by name through the framework index, instead of indexing all of them
+    private final FrameworkIndex frameworkIndex;
+    private final ConcurrentHashMap<String, Optional<Executables<Method>>> indexedMethods;
+
+    private final ConcurrentHashMap<String, Overloads<Method>> methodOverloads = new ConcurrentHashMap<>();
+    private volatile Overloads<Constructor<?>> constructorOverloads;
+
+    private final ConcurrentHashMap<String, CallSite<Method>> methodCallSites = new ConcurrentHashMap<>();
+    private volatile CallSite<Constructor<?>> constructorCallSite;
+
+    // Lookups that go beyond the declared members, e.g. inherited fields or best matches
+    private final ConcurrentHashMap<Object, Optional<? extends Member>> resolved = new ConcurrentHashMap<>();
+
+    // Accessors of declared or inherited instance fields, by name
+    private final ConcurrentHashMap<String, FieldAccessor> accessors = new ConcurrentHashMap<>();
+
+    /**
+     * Declared methods or constructors sharing a name, with their parameter types.
+     */
+    public static final class Executables<T extends Executable> {
+        public final T[] members;
+        public final Class<?>[][] parameterTypes;
+
+        Executables(T[] members) {
+            this.members = members;
+            this.parameterTypes = new Class<?>[members.length][];
+            for (int i = 0; i < members.length; i++) {
+                setAccessible(members[i]);
+                try {
+                    parameterTypes[i] = members[i].getParameterTypes();
+                } catch (LinkageError ignored) {
+                    // a parameter type cannot be resolved, nobody can ask for it by type either
+                }
+            }
+        }
+
+        /**
+         * The member with exactly these parameter types. Like {@link Class#getDeclaredMethod},
+         * non-synthetic members win over synthetic ones, e.g. bridges.
+         */
+        @Nullable
+        public T find(Class<?>[] parameterTypes) {
+            T result = null;
+            for (int i = 0; i < members.length; i++) {
+                if (!Arrays.equals(this.parameterTypes[i], parameterTypes)) continue;
+                if (!members[i].isSynthetic()) return members[i];
+                if (result == null) result = members[i];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The candidates of a best match lookup, bucketed by arity. Each bucket caches per parameter
+     * position and argument class the cost of every candidate, so that a lookup only sums up
+     * cached costs and neither allocates nor compares candidates pairwise.
+     */
+    public static final class Overloads<T extends Executable> {
+        private final Bucket<T>[] byArity;
+
+        @SuppressWarnings("unchecked")
+        Overloads(List<T> candidates, List<Class<?>[]> parameterTypes) {
+            int maxArity = -1;
+            for (var types : parameterTypes) {
+                maxArity = Math.max(maxArity, types.length);
+            }
+            byArity = new Bucket[maxArity + 1];
+            for (int arity = 0; arity <= maxArity; arity++) {
+                var members = new ArrayList<T>();
+                var types = new ArrayList<Class<?>[]>();
+                for (int i = 0; i < candidates.size(); i++) {
+                    if (parameterTypes.get(i).length != arity) continue;
+                    members.add(candidates.get(i));
+                    types.add(parameterTypes.get(i));
+                }
+                if (!members.isEmpty()) {
+                    byArity[arity] = new Bucket<>(arity, members, types);
+                }
+            }
+        }
+
+        /**
+         * The candidate the arguments are assignable to at the lowest transformation cost, the
+         * earliest one among equal costs. This picks the same member as comparing the candidates
+         * in order with {@link MemberUtilsX#compareMethodFit}.
+         */
+        @Nullable
+        public T bestMatch(@NonNull Class<?>[] actual) {
+            if (actual.length >= byArity.length) return null;
+            var bucket = byArity[actual.length];
+            return bucket != null ? bucket.bestMatch(actual) : null;
+        }
+
+        int size() {
+            int size = 0;
+            for (var bucket : byArity) {
+                if (bucket != null) size += bucket.members.length;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Best matches by the classes of the arguments, like a polymorphic inline cache. Each arity
+     * remembers up to {@link #LIMIT} argument class combinations. A lookup compares the classes
+     * of the arguments with the cached ones, so that a hit neither allocates nor resolves. An
+     * arity that sees more combinations is megamorphic and no longer cached.
+     */
+    public static final class CallSite<T extends Executable> {
+        private static final int LIMIT = 8;
+        private static final Entry[] MEGAMORPHIC = new Entry[0];
+
+        private static final class Entry {
+            final Class<?>[] classes;
+            final Object member;
+
+            Entry(Class<?>[] classes, Object member) {
+                this.classes = classes;
+                this.member = member;
+            }
+        }
+
+        // [arity] entries, copied on write
+        private volatile Entry[][] byArity = new Entry[0][];
+
+        // Racy on purpose, statistics only
+        private long hits;
+        private long misses;
+
+        /**
+         * The cached best match for arguments of these classes, {@code null} on a miss.
+         */
+        @Nullable
+        @SuppressWarnings("unchecked")
+        public T lookup(@NonNull Object[] args) {
+            var byArity = this.byArity;
+            if (args.length < byArity.length && byArity[args.length] != null) {
+                next:
+                for (var entry : byArity[args.length]) {
+                    var classes = entry.classes;
+                    for (int i = 0; i < args.length; i++) {
+                        var arg = args[i];
+                        if ((arg != null ? arg.getClass() : null) != classes[i]) continue next;
+                    }
+                    hits++;
+                    return (T) entry.member;
+                }
+            }
+            misses++;
+            return null;
+        }
+
+        /**
+         * Caches the best match for arguments of the classes of these.
+         */
+        public synchronized void add(@NonNull Object[] args, @NonNull T member) {
+            var byArity = this.byArity;
+            if (args.length >= byArity.length) {
+                byArity = Arrays.copyOf(byArity, args.length + 1);
+            } else {
+                byArity = byArity.clone();
+            }
+            var entries = byArity[args.length];
+            if (entries == MEGAMORPHIC) return;
+            if (entries == null) {
+                entries = new Entry[0];
+            } else if (entries.length >= LIMIT) {
+                byArity[args.length] = MEGAMORPHIC;
+                this.byArity = byArity;
+                return;
+            }
+            var classes = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                classes[i] = args[i] != null ? args[i].getClass() : null;
+            }
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = new Entry(classes, member);
+            byArity[args.length] = entries;
+            this.byArity = byArity;
+        }
+
+        int megamorphicArities() {
+            int count = 0;
+            for (var entries : byArity) {
+                if (entries == MEGAMORPHIC) count++;
+            }
+            return count;
+        }
+    }
+
+    private static final class Bucket<T extends Executable> {
+        final Object[] members;
+        final Class<?>[][] parameterTypes;
+        final boolean[] varArgs;
+        // [position] argument class -> cost per candidate, infinite if not assignable
+        final ConcurrentHashMap<Class<?>, float[]>[] costs;
+        final float[][] nullCosts;
+
+        @SuppressWarnings("unchecked")
+        Bucket(int arity, List<T> members, List<Class<?>[]> parameterTypes) {
+            this.members = members.toArray();
+            this.parameterTypes = parameterTypes.toArray(new Class<?>[0][]);
+            varArgs = new boolean[this.members.length];
+            for (int c = 0; c < varArgs.length; c++) {
+                varArgs[c] = members.get(c).isVarArgs();
+            }
+            costs = new ConcurrentHashMap[arity];
+            nullCosts = new float[arity][];
+            for (int i = 0; i < arity; i++) {
+                costs[i] = new ConcurrentHashMap<>();
+                nullCosts[i] = computeCosts(i, null);
+            }
+        }
+
+        private float[] computeCosts(int position, Class<?> actual) {
+            var row = new float[members.length];
+            for (int c = 0; c < row.length; c++) {
+                var type = parameterTypes[c][position];
+                row[c] = ClassUtilsX.isAssignable(actual, type, true) ?
+                        MemberUtilsX.getParameterTransformationCost(actual, type, varArgs[c] && position == parameterTypes[c].length - 1) :
+                        Float.POSITIVE_INFINITY;
+            }
+            return row;
+        }
+
+        private float[] costs(int position, Class<?> actual) {
+            if (actual == null) return nullCosts[position];
+            var row = costs[position].get(actual);
+            if (row == null) {
+                row = computeCosts(position, actual);
+                costs[position].putIfAbsent(actual, row);
+            }
+            return row;
+        }
+
+        @SuppressWarnings("unchecked")
+        T bestMatch(Class<?>[] actual) {
+            int best = -1;
+            float bestCost = 0;
+            for (int c = 0; c < members.length; c++) {
+                // summed up in order, exactly like MemberUtils does
+                float cost = 0;
+                for (int i = 0; i < actual.length && cost != Float.POSITIVE_INFINITY; i++) {
+                    cost += costs(i, actual[i])[c];
+                }
+                if (cost == Float.POSITIVE_INFINITY) continue;
+                if (best < 0 || cost < bestCost) {
+                    best = c;
+                    bestCost = cost;
+                }
+            }
+            return best < 0 ? null : (T) members[best];
+        }
+    }
+
+    private ClassMembers(Class<?> clazz) {
+        this.clazz = clazz;
+        frameworkIndex = FrameworkIndex.of(clazz);
+        indexedMethods = frameworkIndex != null ? new ConcurrentHashMap<>() : null;
+    }
+
+    private static void setAccessible(AccessibleObject member) {
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException ignored) {
+            // e.g. constructors of Class, one member must not fail the whole table
+        }
+    }
+
+    @NonNull
+    public static ClassMembers of(@NonNull Class<?> clazz) {
+        var ref = tables.get(clazz);
+        var members = ref != null ? ref.get() : null;
+        if (members != null) return members;
+        synchronized (tables) {
+            ref = tables.get(clazz);
+            members = ref != null ? ref.get() : null;
+            if (members == null) {
+                var table = members = new ClassMembers(clazz);
+                // the previous table of this class may have been cleared
+                tables.remove(clazz);
+                tables.computeIfAbsent(clazz, c -> new SoftReference<>(table));
+            }
+            return members;
+        }
+    }
+
+    /**
+     * The declared field with this name, set to accessible.
+     */
+    @Nullable
+    public Field getField(@NonNull String name) {
+        var fields = this.fields;
+        if (fields == null) {
+            synchronized (this) {
+                if ((fields = this.fields) == null) {
+                    var map = new HashMap<String, Field>();
+                    for (var field : clazz.getDeclaredFields()) {
+                        // obfuscated classes may reuse a name, the first one wins like getDeclaredField
+                        if (map.putIfAbsent(field.getName(), field) == null) {
+                            setAccessible(field);
+                        }
+                    }
+                    this.fields = fields = map;
+                }
+            }
+        }
+        return fields.get(name);
+    }
+
+    /**
+     * The declared methods with this name.
+     */
+    @Nullable
+    public Executables<Method> getMethods(@NonNull String name) {
+        if (this.methods == null && frameworkIndex != null) {
+            var indexed = indexedMethods.get(name);
+            if (indexed == null) {
+                var members = frameworkIndex.getDeclaredMethods(clazz, name);
+                // not covered by the index, scan the class after all
+                if (members == null) return getAllMethods().get(name);
+                indexed = indexedMethods.computeIfAbsent(name, n -> Optional.ofNullable(
+                        members.length > 0 ? new Executables<>(members) : null));
+            }
+            return indexed.orElse(null);
+        }
+        return getAllMethods().get(name);
+    }
+
+    private Map<String, Executables<Method>> getAllMethods() {
+        var methods = this.methods;
+        if (methods == null) {
+            synchronized (this) {
+                if ((methods = this.methods) == null) {
+                    var byName = new HashMap<String, ArrayList<Method>>();
+                    for (var method : clazz.getDeclaredMethods()) {
+                        byName.computeIfAbsent(method.getName(), n -> new ArrayList<>(1)).add(method);
+                    }
+                    var map = new HashMap<String, Executables<Method>>(byName.size() * 4 / 3 + 1);
+                    for (var entry : byName.entrySet()) {
+                        map.put(entry.getKey(), new Executables<>(entry.getValue().toArray(new Method[0])));
+                    }
+                    this.methods = methods = map;
+                }
+            }
+        }
+        return methods;
+    }
+
+    @NonNull
+    public Executables<Constructor<?>> getConstructors() {
+        var constructors = this.constructors;
+        if (constructors == null) {
+            synchronized (this) {
+                if ((constructors = this.constructors) == null) {
+                    var members = frameworkIndex != null ? frameworkIndex.getDeclaredConstructors(clazz) : null;
+                    if (members == null) members = clazz.getDeclaredConstructors();
+                    this.constructors = constructors = new Executables<>(members);
+                }
+            }
+        }
+        return constructors;
+    }
+
+    /**
+     * The candidates for a best match of a method with this name: the declared methods of this
+     * class followed by the non-private declared methods of its superclasses.
+     */
+    @NonNull
+    public Overloads<Method> getMethodOverloads(@NonNull String name) {
+        var overloads = methodOverloads.get(name);
+        if (overloads == null) {
+            overloads = methodOverloads.computeIfAbsent(name, this::collectMethodOverloads);
+        }
+        return overloads;
+    }
+
+    private Overloads<Method> collectMethodOverloads(String name) {
+        var candidates = new ArrayList<Method>();
+        var parameterTypes = new ArrayList<Class<?>[]>();
+        for (var clz = clazz; clz != null; clz = clz.getSuperclass()) {
+            var methods = of(clz).getMethods(name);
+            if (methods == null) continue;
+            for (int i = 0; i < methods.members.length; i++) {
+                // don't consider private methods of superclasses
+                if (clz != clazz && Modifier.isPrivate(methods.members[i].getModifiers())) continue;
+                if (methods.parameterTypes[i] == null) continue;
+                candidates.add(methods.members[i]);
+                parameterTypes.add(methods.parameterTypes[i]);
+            }
+        }
+        return new Overloads<>(candidates, parameterTypes);
+    }
+
+    /**
+     * The candidates for a best match of a constructor, i.e. the declared constructors.
+     */
+    @NonNull
+    public Overloads<Constructor<?>> getConstructorOverloads() {
+        var overloads = constructorOverloads;
+        if (overloads == null) {
+            synchronized (this) {
+                if ((overloads = constructorOverloads) == null) {
+                    var constructors = getConstructors();
+                    var candidates = new ArrayList<Constructor<?>>();
+                    var parameterTypes = new ArrayList<Class<?>[]>();
+                    for (int i = 0; i < constructors.members.length; i++) {
+                        if (constructors.parameterTypes[i] == null) continue;
+                        candidates.add(constructors.members[i]);
+                        parameterTypes.add(constructors.parameterTypes[i]);
+                    }
+                    constructorOverloads = overloads = new Overloads<>(candidates, parameterTypes);
+                }
+            }
+        }
+        return overloads;
+    }
+
+    /**
+     * The call site cache of best matches of methods with this name, by argument classes.
+     */
+    @NonNull
+    public CallSite<Method> getMethodCallSite(@NonNull String name) {
+        var callSite = methodCallSites.get(name);
+        if (callSite == null) {
+            callSite = methodCallSites.computeIfAbsent(name, n -> new CallSite<>());
+        }
+        return callSite;
+    }
+
+    /**
+     * The call site cache of best matches of constructors, by argument classes.
+     */
+    @NonNull
+    public CallSite<Constructor<?>> getConstructorCallSite() {
+        var callSite = constructorCallSite;
+        if (callSite == null) {
+            synchronized (this) {
+                if ((callSite = constructorCallSite) == null) {
+                    constructorCallSite = callSite = new CallSite<>();
+                }
+            }
+        }
+        return callSite;
+    }
+
+    /**
+     * Caches the result of a lookup beyond the declared members of this class. Keys only need to
+     * be unique within this class. The resolver gets this class, so that it needs not capture it.
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public <K, T extends Member> Optional<T> resolve(@NonNull K key, @NonNull BiFunction<Class<?>, K, Optional<T>> resolver) {
+        var result = resolved.get(key);
+        if (result == null) {
+            result = resolved.computeIfAbsent(key, k -> resolver.apply(clazz, (K) k));
+        }
+        return (Optional<T>) result;
+    }
+
+    /**
+     * The accessor of a declared or inherited field of this class. The finder gets this class and
+     * the name and throws if there is no such field, in which case nothing is cached.
+     */
+    @NonNull
+    public FieldAccessor getFieldAccessor(@NonNull String name, @NonNull BiFunction<Class<?>, String, Field> finder) {
+        var accessor = accessors.get(name);
+        if (accessor == null) {
+            accessor = accessors.computeIfAbsent(name, n -> new FieldAccessor(finder.apply(clazz, n)));
+        }
+        return accessor;
+    }
+
+    private int size() {
+        var fields = this.fields;
+        var methods = this.methods;
+        var constructors = this.constructors;
+        int size = resolved.size();
+        if (fields != null) size += fields.size();
+        if (methods != null) {
+            for (var group : methods.values()) size += group.members.length;
+        }
+        if (constructors != null) size += constructors.members.length;
+        if (indexedMethods != null) {
+            for (var group : indexedMethods.values()) {
+                if (group.isPresent()) size += group.get().members.length;
+            }
+        }
+        for (var overloads : methodOverloads.values()) size += overloads.size();
+        var constructorOverloads = this.constructorOverloads;
+        if (constructorOverloads != null) size += constructorOverloads.size();
+        return size;
+    }
+
+    /**
+     * A report of the cached tables, one line per class loader, tab separated: class loader,
+     * tables, cached members, field accessors, accessors switched to direct access, the accessor
+     * calls that took the direct and the reflective path, call site hits and misses, and
+     * megamorphic call sites.
+     */
+    @NonNull
+    public static String report() {
+        var loaders = new IdentityHashMap<ClassLoader, long[]>();
+        tables.forEach((clazz, ref) -> {
+            var members = ref.get();
+            if (members == null) return;
+            var counts = loaders.computeIfAbsent(clazz.getClassLoader(), l -> new long[9]);
+            counts[0]++;
+            counts[1] += members.size();
+            for (var accessor : members.accessors.values()) {
+                counts[2]++;
+                if (accessor.isDirect()) counts[3]++;
+                counts[4] += accessor.getFastCalls();
+                counts[5] += accessor.getSlowCalls();
+            }
+            for (var callSite : members.methodCallSites.values()) {
+                count(counts, callSite);
+            }
+            var constructorCallSite = members.constructorCallSite;
+            if (constructorCallSite != null) count(counts, constructorCallSite);
+        });
+        var sb = new StringBuilder();
+        loaders.forEach((loader, counts) -> {
+            sb.append(loader);
+            for (var count : counts) sb.append('\t').append(count);
+            sb.append('\n');
+        });
+        return sb.toString();
+    }
+
+    private static void count(long[] counts, CallSite<?> callSite) {
+        counts[6] += callSite.hits;
+        counts[7] += callSite.misses;
+        counts[8] += callSite.megamorphicArities();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.util;
+
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import sun.misc.Unsafe;
+
+/**
+ * Gets and sets one instance field. The first uses go through {@link Field}, like cold lookups
+ * always did. Once a field has been accessed {@link #getThreshold()} times, its offset is resolved
+ * and the accessors whose type matches the field exactly read and write it through {@link Unsafe},
+ * which ART compiles to a plain load or store without boxing or access checks.
+ *
+ * <p>Everything {@link Field} would reject or convert stays on the reflective path, so behavior and
+ * exceptions are unchanged: static fields, widening conversions, writes to final fields, objects
+ * of other classes, references of the wrong type, and volatile fields of types {@link Unsafe} has
+ * no volatile access for.
+ */
+public final class FieldAccessor {
+    private static final Unsafe UNSAFE = getUnsafe();
+
+    private static volatile int threshold = 16;
+
+    private final Field field;
+    private final Class<?> declaringClass;
+    private final Class<?> type;
+    // shorty of the field type, as in the dex format
+    private final char kind;
+    private final boolean isVolatile;
+    private final boolean eligible;
+    private final boolean writable;
+
+    // Racy on purpose: a lost update only delays the switch or skews the statistics
+    private int getOffset = -1;
+    private int setOffset = -1;
+    private long fastCalls;
+    private long slowCalls;
+
+    public FieldAccessor(@NonNull Field field) {
+        this.field = field;
+        declaringClass = field.getDeclaringClass();
+        type = field.getType();
+        kind = shortyOf(type);
+        var modifiers = field.getModifiers();
+        isVolatile = Modifier.isVolatile(modifiers);
+        eligible = UNSAFE != null && !Modifier.isStatic(modifiers) && (!isVolatile || kind == 'I' || kind == 'J' || kind == 'L');
+        writable = !Modifier.isFinal(modifiers);
+    }
+
+    private static Unsafe getUnsafe() {
+        try {
+            var theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return (Unsafe) theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static char shortyOf(Class<?> type) {
+        if (type == boolean.class) return 'Z';
+        if (type == byte.class) return 'B';
+        if (type == char.class) return 'C';
+        if (type == short.class) return 'S';
+        if (type == int.class) return 'I';
+        if (type == long.class) return 'J';
+        if (type == float.class) return 'F';
+        if (type == double.class) return 'D';
+        return 'L';
+    }
+
+    /**
+     * How many reflective accesses of a field it takes to switch to direct access.
+     */
+    public static int getThreshold() {
+        return threshold;
+    }
+
+    public static void setThreshold(int threshold) {
+        FieldAccessor.threshold = Math.max(threshold, 1);
+    }
+
+    @NonNull
+    public Field getField() {
+        return field;
+    }
+
+    public boolean isDirect() {
+        return getOffset >= 0;
+    }
+
+    public long getFastCalls() {
+        return fastCalls;
+    }
+
+    public long getSlowCalls() {
+        return slowCalls;
+    }
+
+    private boolean fast(int offset, char kind, Object obj) {
+        if (offset >= 0 && this.kind == kind && declaringClass.isInstance(obj)) {
+            fastCalls++;
+            return true;
+        }
+        if (++slowCalls >= threshold && getOffset < 0 && eligible) {
+            int resolved = (int) UNSAFE.objectFieldOffset(field);
+            setOffset = writable ? resolved : -1;
+            getOffset = resolved;
+        }
+        return false;
+    }
+
+    public Object get(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'L', obj)) {
+            return isVolatile ? UNSAFE.getObjectVolatile(obj, offset) : UNSAFE.getObject(obj, offset);
+        }
+        return field.get(obj);
+    }
+
+    public void set(Object obj, Object value) throws IllegalAccessException {
+        int offset = setOffset;
+        if ((value == null || type.isInstance(value)) && fast(offset, 'L', obj)) {
+            if (isVolatile) {
+                UNSAFE.putObjectVolatile(obj, offset, value);
+            } else {
+                UNSAFE.putObject(obj, offset, value);
+            }
+            return;
+        }
+        field.set(obj, value);
+    }
+
+    public boolean getBoolean(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'Z', obj)) {
+            return UNSAFE.getBoolean(obj, offset);
+        }
+        return field.getBoolean(obj);
+    }
+
+    public void setBoolean(Object obj, boolean value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'Z', obj)) {
+            UNSAFE.putBoolean(obj, offset, value);
+            return;
+        }
+        field.setBoolean(obj, value);
+    }
+
+    public byte getByte(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'B', obj)) {
+            return UNSAFE.getByte(obj, offset);
+        }
+        return field.getByte(obj);
+    }
+
+    public void setByte(Object obj, byte value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'B', obj)) {
+            UNSAFE.putByte(obj, offset, value);
+            return;
+        }
+        field.setByte(obj, value);
+    }
+
+    public char getChar(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'C', obj)) {
+            return UNSAFE.getChar(obj, offset);
+        }
+        return field.getChar(obj);
+    }
+
+    public void setChar(Object obj, char value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'C', obj)) {
+            UNSAFE.putChar(obj, offset, value);
+            return;
+        }
+        field.setChar(obj, value);
+    }
+
+    public short getShort(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'S', obj)) {
+            return UNSAFE.getShort(obj, offset);
+        }
+        return field.getShort(obj);
+    }
+
+    public void setShort(Object obj, short value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'S', obj)) {
+            UNSAFE.putShort(obj, offset, value);
+            return;
+        }
+        field.setShort(obj, value);
+    }
+
+    public int getInt(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'I', obj)) {
+            return isVolatile ? UNSAFE.getIntVolatile(obj, offset) : UNSAFE.getInt(obj, offset);
+        }
+        return field.getInt(obj);
+    }
+
+    public void setInt(Object obj, int value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'I', obj)) {
+            if (isVolatile) {
+                UNSAFE.putIntVolatile(obj, offset, value);
+            } else {
+                UNSAFE.putInt(obj, offset, value);
+            }
+            return;
+        }
+        field.setInt(obj, value);
+    }
+
+    public long getLong(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'J', obj)) {
+            return isVolatile ? UNSAFE.getLongVolatile(obj, offset) : UNSAFE.getLong(obj, offset);
+        }
+        return field.getLong(obj);
+    }
+
+    public void setLong(Object obj, long value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'J', obj)) {
+            if (isVolatile) {
+                UNSAFE.putLongVolatile(obj, offset, value);
+            } else {
+                UNSAFE.putLong(obj, offset, value);
+            }
+            return;
+        }
+        field.setLong(obj, value);
+    }
+
+    public float getFloat(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'F', obj)) {
+            return UNSAFE.getFloat(obj, offset);
+        }
+        return field.getFloat(obj);
+    }
+
+    public void setFloat(Object obj, float value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'F', obj)) {
+            UNSAFE.putFloat(obj, offset, value);
+            return;
+        }
+        field.setFloat(obj, value);
+    }
+
+    public double getDouble(Object obj) throws IllegalAccessException {
+        int offset = getOffset;
+        if (fast(offset, 'D', obj)) {
+            return UNSAFE.getDouble(obj, offset);
+        }
+        return field.getDouble(obj);
+    }
+
+    public void setDouble(Object obj, double value) throws IllegalAccessException {
+        int offset = setOffset;
+        if (fast(offset, 'D', obj)) {
+            UNSAFE.putDouble(obj, offset, value);
+            return;
+        }
+        field.setDouble(obj, value);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.util;
+
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reader of the index of declared methods and constructors of commonly used framework classes,
+ * built once per boot image by the daemon and shared read-only with every process. It lets
+ * {@link ClassMembers} fetch the members of a boot class by name and parameter types instead of
+ * materializing all of them through {@link Class#getDeclaredMethods()}.
+ *
+ * <p>The index is advisory: classes, names and members it does not cover, or that do not resolve
+ * in this process, are left to a regular scan.
+ */
+public final class FrameworkIndex {
+    // keep in sync with FrameworkIndex in the daemon
+    private static final int MAGIC = 0x4c535049;
+    private static final int VERSION = 1;
+    private static final int UNINDEXED = -1;
+
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+    static {
+        for (var type : new Class<?>[]{boolean.class, byte.class, char.class, short.class,
+                int.class, long.class, float.class, double.class}) {
+            PRIMITIVES.put(type.getName(), type);
+        }
+    }
+
+    private static volatile FrameworkIndex instance;
+
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> classes;
+    // parameter types by string id, boot classes are never unloaded
+    private final Class<?>[] types;
+    private final ConcurrentHashMap<String, Map<String, Integer>> methodNames = new ConcurrentHashMap<>();
+
+    private FrameworkIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int classCount = buffer.getInt(12);
+        types = new Class<?>[buffer.getInt(8)];
+        classes = new HashMap<>(classCount * 4 / 3 + 1);
+        int directory = 16 + types.length * 4;
+        for (int i = 0; i < classCount; i++) {
+            classes.put(string(buffer.getInt(directory + i * 8)), buffer.getInt(directory + i * 8 + 4));
+        }
+    }
+
+    /**
+     * Maps the index shared by the daemon. Invalid indexes are ignored.
+     */
+    public static void init(@Nullable SharedMemory memory) {
+        if (memory == null) return;
+        try {
+            var buffer = memory.mapReadOnly();
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                SharedMemory.unmap(buffer);
+                return;
+            }
+            instance = new FrameworkIndex(buffer);
+        } catch (ErrnoException | RuntimeException e) {
+            Utils.logW("map framework index", e);
+        } finally {
+            memory.close();
+        }
+    }
+
+    /**
+     * The index of a class, if it is a boot class that is indexed.
+     */
+    @Nullable
+    static FrameworkIndex of(@NonNull Class<?> clazz) {
+        var index = instance;
+        if (index == null || clazz.getClassLoader() != null) return null;
+        return index.classes.containsKey(clazz.getName()) ? index : null;
+    }
+
+    private String string(int id) {
+        int offset = buffer.getInt(16 + id * 4);
+        var bytes = new byte[buffer.getShort(offset) & 0xffff];
+        // absolute bulk reads need API 35, a duplicate keeps this thread safe
+        var view = buffer.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Map<String, Integer> methodNames(Class<?> clazz) {
+        var names = methodNames.get(clazz.getName());
+        if (names != null) return names;
+        return methodNames.computeIfAbsent(clazz.getName(), n -> {
+            int offset = classes.get(n);
+            int count = buffer.getInt(offset);
+            var map = new HashMap<String, Integer>(count * 4 / 3 + 1);
+            offset += 4;
+            for (int i = 0; i < count; i++) {
+                map.put(string(buffer.getInt(offset)), offset + 4);
+                offset = skipExecutables(offset + 4);
+            }
+            // constructors follow the last name
+            map.put("<init>", offset);
+            return map;
+        });
+    }
+
+    private int skipExecutables(int offset) {
+        int count = buffer.getInt(offset);
+        offset += 4;
+        for (int i = 0; i < count; i++) {
+            offset += 4 + buffer.getInt(offset) * 4;
+        }
+        return offset;
+    }
+
+    // null if any parameter type does not resolve
+    private Class<?>[][] parameterTypes(int offset, int count) {
+        var result = new Class<?>[count][];
+        offset += 4;
+        for (int i = 0; i < count; i++) {
+            var parameterTypes = result[i] = new Class<?>[buffer.getInt(offset)];
+            offset += 4;
+            for (int j = 0; j < parameterTypes.length; j++, offset += 4) {
+                if ((parameterTypes[j] = type(buffer.getInt(offset))) == null) return null;
+            }
+        }
+        return result;
+    }
+
+    private Class<?> type(int id) {
+        var type = types[id];
+        if (type != null) return type;
+        var name = string(id);
+        type = PRIMITIVES.get(name);
+        if (type == null) {
+            try {
+                type = Class.forName(name, false, null);
+            } catch (ClassNotFoundException | LinkageError e) {
+                return null;
+            }
+        }
+        return types[id] = type;
+    }
+
+    /**
+     * The declared methods of an indexed class with this name, in the order of
+     * {@link Class#getDeclaredMethods()}, or {@code null} if the class has to be scanned.
+     */
+    @Nullable
+    Method[] getDeclaredMethods(@NonNull Class<?> clazz, @NonNull String name) {
+        var offset = methodNames(clazz).get(name);
+        if (offset == null || name.equals("<init>")) return new Method[0];
+        int count = buffer.getInt(offset);
+        if (count == UNINDEXED) return null;
+        var parameterTypes = parameterTypes(offset, count);
+        if (parameterTypes == null) return null;
+        var methods = new ArrayList<Method>(count);
+        for (var types : parameterTypes) {
+            try {
+                methods.add(clazz.getDeclaredMethod(name, types));
+            } catch (NoSuchMethodException ignored) {
+                // hidden from this process, like it would be from a scan
+            }
+        }
+        return methods.toArray(new Method[0]);
+    }
+
+    /**
+     * The declared constructors of an indexed class, in the order of
+     * {@link Class#getDeclaredConstructors()}, or {@code null} if the class has to be scanned.
+     */
+    @Nullable
+    Constructor<?>[] getDeclaredConstructors(@NonNull Class<?> clazz) {
+        int offset = methodNames(clazz).get("<init>");
+        int count = buffer.getInt(offset);
+        if (count == UNINDEXED) return null;
+        var parameterTypes = parameterTypes(offset, count);
+        if (parameterTypes == null) return null;
+        var constructors = new ArrayList<Constructor<?>>(count);
+        for (var types : parameterTypes) {
+            try {
+                constructors.add(clazz.getDeclaredConstructor(types));
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        return constructors.toArray(new Constructor<?>[0]);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A concurrent map with weakly referenced keys compared by identity. Unlike
+ * {@link java.util.WeakHashMap} it never calls {@code hashCode} or {@code equals} of the keys, and
+ * lookups neither lock nor allocate. Writes lock one of several segments, and entries of collected
+ * keys are expunged from that segment whenever it is written to.
+ */
+public final class WeakIdentityMap<K, V> {
+    private static final int SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+
+    private static final class Entry<K, V> extends WeakReference<K> {
+        final int hash;
+        final V value;
+        final Entry<K, V> next;
+
+        Entry(K key, int hash, V value, Entry<K, V> next, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    // Chains are immutable, writers replace the prefix up to the changed entry
+    private static final class Segment<K, V> {
+        private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+        private volatile AtomicReferenceArray<Entry<K, V>> table = new AtomicReferenceArray<>(4);
+        private int count;
+
+        V get(Object key, int hash) {
+            var tab = table;
+            for (var e = tab.get(hash & (tab.length() - 1)); e != null; e = e.next) {
+                if (e.get() == key) return e.value;
+            }
+            return null;
+        }
+
+        synchronized V computeIfAbsent(K key, int hash, Function<? super K, ? extends V> mappingFunction) {
+            var value = get(key, hash);
+            if (value != null) return value;
+            expunge();
+            value = mappingFunction.apply(key);
+            if (value == null) return null;
+            var tab = count >= table.length() * 3 / 4 ? resize() : table;
+            int index = hash & (tab.length() - 1);
+            tab.set(index, new Entry<>(key, hash, value, tab.get(index), queue));
+            count++;
+            return value;
+        }
+
+        synchronized V remove(Object key, int hash) {
+            expunge();
+            var tab = table;
+            int index = hash & (tab.length() - 1);
+            for (var e = tab.get(index); e != null; e = e.next) {
+                if (e.get() == key) {
+                    unlink(tab, index, e);
+                    return e.value;
+                }
+            }
+            return null;
+        }
+
+        synchronized int size() {
+            expunge();
+            return count;
+        }
+
+        void forEach(BiConsumer<? super K, ? super V> action) {
+            var tab = table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (var e = tab.get(i); e != null; e = e.next) {
+                    var key = e.get();
+                    if (key != null) action.accept(key, e.value);
+                }
+            }
+        }
+
+        private void unlink(AtomicReferenceArray<Entry<K, V>> tab, int index, Entry<K, V> entry) {
+            var head = entry.next;
+            for (var e = tab.get(index); e != entry; e = e.next) {
+                var key = e.get();
+                if (key != null) {
+                    head = new Entry<>(key, e.hash, e.value, head, queue);
+                } else {
+                    count--;
+                }
+            }
+            tab.set(index, head);
+            count--;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void expunge() {
+            var tab = table;
+            for (Entry<K, V> ref; (ref = (Entry<K, V>) queue.poll()) != null; ) {
+                int index = ref.hash & (tab.length() - 1);
+                for (var e = tab.get(index); e != null; e = e.next) {
+                    if (e == ref) {
+                        unlink(tab, index, e);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private AtomicReferenceArray<Entry<K, V>> resize() {
+            var old = table;
+            var tab = new AtomicReferenceArray<Entry<K, V>>(old.length() * 2);
+            int live = 0;
+            for (int i = 0; i < old.length(); i++) {
+                for (var e = old.get(i); e != null; e = e.next) {
+                    var key = e.get();
+                    if (key == null) continue;
+                    int index = e.hash & (tab.length() - 1);
+                    tab.set(index, new Entry<>(key, e.hash, e.value, tab.get(index), queue));
+                    live++;
+                }
+            }
+            count = live;
+            table = tab;
+            return tab;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public WeakIdentityMap() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = System.identityHashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private Segment<K, V> segmentFor(int hash) {
+        // the low bits index the table of the segment
+        return segments[(hash >>> 24) & (SEGMENTS - 1)];
+    }
+
+    public V get(Object key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Returns the value of {@code key}, creating it with {@code mappingFunction} if absent. As for
+     * {@link java.util.concurrent.ConcurrentHashMap#computeIfAbsent}, the value is created at most
+     * once per key and the function must not write to this map.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        int hash = hash(key);
+        var segment = segmentFor(hash);
+        var value = segment.get(key, hash);
+        if (value != null) return value;
+        return segment.computeIfAbsent(key, hash, mappingFunction);
+    }
+
+    public V remove(Object key) {
+        int hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Visits the entries whose keys are still alive, without locking. Concurrent writes may or
+     * may not be seen.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for (var segment : segments) {
+            segment.forEach(action);
+        }
+    }
+}
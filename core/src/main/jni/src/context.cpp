@@ -57,6 +57,7 @@ namespace lspd {
             LOGE("Failed to init lsplant");
             return;
         }
+        InstallClassInitHook(initInfo);
     }
 
     void Context::InitHooks(JNIEnv *env) {
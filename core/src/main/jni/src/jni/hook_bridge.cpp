@@ -19,24 +19,36 @@
 
 #include "hook_bridge.h"
 #include "native_util.h"
+#include "elf_util.h"
+#include "symbol_cache.h"
 #include "lsplant.hpp"
 #include <parallel_hashmap/phmap.h>
+#include <array>
+#include <atomic>
+#include <chrono>
 #include <memory>
 #include <shared_mutex>
 #include <mutex>
 #include <set>
+#include <vector>
 
 using namespace lsplant;
+using lsplant::operator""_sym;
 
 namespace {
-struct ModuleCallback {
-    jmethodID before_method;
-    jmethodID after_method;
-};
+jclass object_class = nullptr;
+jmethodID publish_method = nullptr;
 
 struct HookItem {
+    // guarded by the monitor of backup, readers only see the published snapshot
     std::multimap<jint, jobject, std::greater<>> legacy_callbacks;
-    std::multimap<jint, ModuleCallback, std::greater<>> modern_callbacks;
+    std::multimap<jint, jobject, std::greater<>> modern_callbacks;
+    jobject hooker = nullptr;
+    uint64_t version = 0;
+    // set before the backup is published, for invoking it without reflection
+    jmethodID backup_method = nullptr;
+    jclass declaring_class = nullptr;
+    bool is_static = false;
 private:
     std::atomic<jobject> backup {nullptr};
     static_assert(decltype(backup)::is_always_lock_free);
@@ -56,6 +68,24 @@ public:
                                        std::memory_order_acq_rel, std::memory_order_relaxed);
         backup.notify_all();
     }
+    // Rebuilds the immutable callback arrays and hands them to the hooker, which publishes them
+    // with a single volatile write, so that the hot path of a hooked method never locks.
+    void PublishSnapshot(JNIEnv *env) {
+        auto modern = env->NewObjectArray((jsize) modern_callbacks.size(), object_class, nullptr);
+        for (jsize i = 0; auto &[_, callback]: modern_callbacks) {
+            env->SetObjectArrayElement(modern, i++, callback);
+        }
+        auto legacy = env->NewObjectArray((jsize) legacy_callbacks.size(), object_class, nullptr);
+        for (jsize i = 0; auto &[_, callback]: legacy_callbacks) {
+            env->SetObjectArrayElement(legacy, i++, callback);
+        }
+        env->CallVoidMethod(hooker, publish_method, modern, legacy);
+        env->DeleteLocalRef(legacy);
+        env->DeleteLocalRef(modern);
+        ++version;
+        LOGV("Published callback snapshot v{} with {} modern and {} legacy callbacks", version,
+             modern_callbacks.size(), legacy_callbacks.size());
+    }
 };
 
 template <class K, class V, class Hash = phmap::priv::hash_default_hash<K>,
@@ -66,30 +96,212 @@ using SharedHashMap = phmap::parallel_flat_hash_map<K, V, Hash, Eq, Alloc, N, st
 SharedHashMap<jmethodID, std::unique_ptr<HookItem>> hooked_methods;
 
 jmethodID invoke = nullptr;
-jmethodID callback_ctor = nullptr;
-jfieldID before_method_field = nullptr;
-jfieldID after_method_field = nullptr;
+jmethodID get_cause = nullptr;
+jmethodID get_declaring_class = nullptr;
+jmethodID get_modifiers = nullptr;
+jclass invocation_target_exception = nullptr;
+constexpr jint kAccStatic = 0x0008;
+
+struct BoxedType {
+    jclass clazz;
+    jmethodID unbox;
+    jmethodID box;
+};
+
+// indexed by BoxedIndex
+std::array<BoxedType, 8> boxed_types;
+
+int BoxedIndex(jchar shorty) {
+    switch (shorty) {
+        case 'Z': return 0;
+        case 'B': return 1;
+        case 'C': return 2;
+        case 'S': return 3;
+        case 'I': return 4;
+        case 'J': return 5;
+        case 'F': return 6;
+        case 'D': return 7;
+        default: return -1;
+    }
 }
 
-namespace lspd {
-LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, hookMethod, jboolean useModernApi, jobject hookMethod,
-                      jclass hooker, jint priority, jobject callback) {
-    bool newHook = false;
-#ifndef NDEBUG
-    struct finally {
-        std::chrono::steady_clock::time_point start = std::chrono::steady_clock::now();
-        bool &newHook;
-        ~finally() {
-            auto finish = std::chrono::steady_clock::now();
-            if (newHook) {
-                LOGV("New hook took {}us",
-                     std::chrono::duration_cast<std::chrono::microseconds>(finish - start).count());
+// Unboxes args by the parameter part of shorty. Returns false, with nothing thrown, if an argument
+// is null or of another type than its parameter, which leaves conversions and error reporting to
+// reflection. Without parameter_types, reference arguments are passed as they are.
+bool UnboxArgs(JNIEnv *env, const jchar *shorty, jobjectArray parameter_types, jobjectArray args,
+               std::vector<jvalue> &values, std::vector<jobject> &refs) {
+    for (jsize i = 0; i != (jsize) values.size(); ++i) {
+        auto element = env->GetObjectArrayElement(args, i);
+        auto index = BoxedIndex(shorty[i + 1]);
+        if (index < 0) {
+            refs.push_back(element);
+            if (element && parameter_types) {
+                auto type = (jclass) env->GetObjectArrayElement(parameter_types, i);
+                bool assignable = env->IsInstanceOf(element, type);
+                env->DeleteLocalRef(type);
+                if (!assignable) return false;
             }
+            values[i].l = element;
+            continue;
         }
-    } finally {
-        .newHook = newHook
-    };
-#endif
+        auto &boxed = boxed_types[index];
+        if (!element || !env->IsInstanceOf(element, boxed.clazz)) {
+            if (element) env->DeleteLocalRef(element);
+            return false;
+        }
+        switch (shorty[i + 1]) {
+            case 'Z': values[i].z = env->CallBooleanMethod(element, boxed.unbox); break;
+            case 'B': values[i].b = env->CallByteMethod(element, boxed.unbox); break;
+            case 'C': values[i].c = env->CallCharMethod(element, boxed.unbox); break;
+            case 'S': values[i].s = env->CallShortMethod(element, boxed.unbox); break;
+            case 'I': values[i].i = env->CallIntMethod(element, boxed.unbox); break;
+            case 'J': values[i].j = env->CallLongMethod(element, boxed.unbox); break;
+            case 'F': values[i].f = env->CallFloatMethod(element, boxed.unbox); break;
+            case 'D': values[i].d = env->CallDoubleMethod(element, boxed.unbox); break;
+        }
+        env->DeleteLocalRef(element);
+    }
+    return true;
+}
+
+#define CALL_A(Type) (is_static ? env->CallStatic##Type##MethodA(clazz, method, args) \
+                                : env->CallNonvirtual##Type##MethodA(thiz, clazz, method, args))
+#define BOX(Type, index) Box(env, index, CALL_A(Type))
+
+template<typename T>
+jobject Box(JNIEnv *env, int index, T value) {
+    if (env->ExceptionCheck()) return nullptr;
+    return env->CallStaticObjectMethod(boxed_types[index].clazz, boxed_types[index].box, value);
+}
+
+// Calls method exactly, without virtual dispatch, and boxes its result by the return shorty
+jobject CallBoxed(JNIEnv *env, jchar return_shorty, bool is_static, jobject thiz, jclass clazz,
+                  jmethodID method, const jvalue *args) {
+    switch (return_shorty) {
+        case 'Z': return BOX(Boolean, 0);
+        case 'B': return BOX(Byte, 1);
+        case 'C': return BOX(Char, 2);
+        case 'S': return BOX(Short, 3);
+        case 'I': return BOX(Int, 4);
+        case 'J': return BOX(Long, 5);
+        case 'F': return BOX(Float, 6);
+        case 'D': return BOX(Double, 7);
+        case 'L': return CALL_A(Object);
+        default:
+        case 'V':
+            CALL_A(Void);
+            return nullptr;
+    }
+}
+
+#undef BOX
+#undef CALL_A
+
+// Method.invoke, throwing the cause of an InvocationTargetException instead of the wrapper
+jobject InvokeReflective(JNIEnv *env, jobject method, jobject thiz, jobjectArray args) {
+    auto result = env->CallObjectMethod(method, invoke, thiz, args);
+    if (auto throwable = env->ExceptionOccurred()) {
+        if (env->IsInstanceOf(throwable, invocation_target_exception)) {
+            env->ExceptionClear();
+            auto cause = (jthrowable) env->CallObjectMethod(throwable, get_cause);
+            env->Throw(cause ? cause : throwable);
+            if (cause) env->DeleteLocalRef(cause);
+        }
+        env->DeleteLocalRef(throwable);
+    }
+    return result;
+}
+
+// The hooker's constructor and callback, only resolved once a target is hooked for the first time
+// and then shared by a whole batch.
+struct HookerMembers {
+    jclass hooker;
+    jmethodID init = nullptr;
+    jobject callback_method = nullptr;
+
+    void Resolve(JNIEnv *env) {
+        if (callback_method) return;
+        init = env->GetMethodID(hooker, "<init>", "(Ljava/lang/reflect/Executable;)V");
+        callback_method = env->ToReflectedMethod(hooker, env->GetMethodID(hooker, "callback",
+                                                                          "([Ljava/lang/Object;)Ljava/lang/Object;"),
+                                                 false);
+        if (publish_method == nullptr) {
+            publish_method = env->GetMethodID(hooker, "publishCallbacks",
+                                              "([Ljava/lang/Object;[Ljava/lang/Object;)V");
+        }
+    }
+
+    void Release(JNIEnv *env) {
+        if (callback_method) env->DeleteLocalRef(callback_method);
+    }
+};
+
+// The Java observer of class initialization, notified once a class has been initialized. The
+// global ref is never deleted, since a thread may be calling it while observation is switched off;
+// observing is only set while there are deferred hooks, so that other class initializations merely
+// load a flag.
+JavaVM *java_vm = nullptr;
+std::atomic<jclass> class_init_observer{nullptr};
+std::atomic_bool observing_class_init{false};
+jmethodID on_class_initialized = nullptr;
+thread_local bool notifying_class_init = false;
+// Classes initialized by the observer itself, e.g. by the hooks it installs, notified once it
+// returns instead of re-entering it
+thread_local std::vector<jobject> initialized_while_notifying;
+jobject (*NewLocalRef)(JNIEnv *env, void *object) = nullptr;
+
+void CallClassInitObserver(JNIEnv *env, jclass observer, jobject clazz) {
+    env->CallStaticVoidMethod(observer, on_class_initialized, clazz);
+    if (env->ExceptionCheck()) {
+        LOGE("Class initialization observer threw");
+        env->ExceptionDescribe();
+        env->ExceptionClear();
+    }
+}
+
+void NotifyClassInitialized(const uint32_t *klass) {
+    if (!observing_class_init.load(std::memory_order_acquire)) return;
+    auto observer = class_init_observer.load(std::memory_order_acquire);
+    if (!observer) return;
+    JNIEnv *env;
+    if (java_vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) return;
+    if (env->ExceptionCheck()) return;
+    // Handle<mirror::Class> points to a compressed StackReference
+    auto clazz = NewLocalRef(env, reinterpret_cast<void *>(static_cast<uintptr_t>(*klass)));
+    if (!clazz) return;
+    if (notifying_class_init) {
+        initialized_while_notifying.push_back(env->NewGlobalRef(clazz));
+        env->DeleteLocalRef(clazz);
+        return;
+    }
+    notifying_class_init = true;
+    CallClassInitObserver(env, observer, clazz);
+    env->DeleteLocalRef(clazz);
+    // in initialization order; notifying one may queue more
+    for (size_t i = 0; i < initialized_while_notifying.size(); ++i) {
+        auto queued = initialized_while_notifying[i];
+        CallClassInitObserver(env, observer, queued);
+        env->DeleteGlobalRef(queued);
+    }
+    initialized_while_notifying.clear();
+    notifying_class_init = false;
+}
+
+// Covers every class ART initializes, whether by reflection, by a loadClass override or natively
+// while resolving app code
+inline static auto InitializeClass_ =
+        "_ZN3art11ClassLinker15InitializeClassEPNS_6ThreadENS_6HandleINS_6mirror5ClassEEEbb"_sym.hook->*[]
+        <lsplant::Backup auto backup>
+        (void *class_linker, void *self, const uint32_t *klass, bool can_init_statics, bool can_init_parents) static -> bool {
+            auto initialized = backup(class_linker, self, klass, can_init_statics, can_init_parents);
+            if (initialized && observing_class_init.load(std::memory_order_relaxed)) [[unlikely]] {
+                NotifyClassInitialized(klass);
+            }
+            return initialized;
+        };
+
+bool HookOne(JNIEnv *env, jboolean useModernApi, jobject hookMethod, HookerMembers &hooker,
+             jint priority, jobject callback, bool &newHook) {
     auto target = env->FromReflectedMethod(hookMethod);
     HookItem * hook_item = nullptr;
     hooked_methods.lazy_emplace_l(target, [&hook_item](auto &it) {
@@ -101,35 +313,101 @@ LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, hookMethod, jboolean useModernApi, j
         newHook = true;
     });
     if (newHook) {
-        auto init = env->GetMethodID(hooker, "<init>", "(Ljava/lang/reflect/Executable;)V");
-        auto callback_method = env->ToReflectedMethod(hooker, env->GetMethodID(hooker, "callback",
-                                                                               "([Ljava/lang/Object;)Ljava/lang/Object;"),
-                                                      false);
-        auto hooker_object = env->NewObject(hooker, init, hookMethod);
-        hook_item->SetBackup(lsplant::Hook(env, hookMethod, hooker_object, callback_method));
+        hooker.Resolve(env);
+        auto hooker_object = env->NewObject(hooker.hooker, hooker.init, hookMethod);
+        if (!hooker_object) {
+            // leave the exception to the caller, later requests see the failed hook
+            hook_item->SetBackup(nullptr);
+            return false;
+        }
+        hook_item->hooker = env->NewGlobalRef(hooker_object);
+        auto backup = lsplant::Hook(env, hookMethod, hooker_object, hooker.callback_method);
+        if (backup) {
+            auto declaring_class = env->CallObjectMethod(hookMethod, get_declaring_class);
+            hook_item->declaring_class = (jclass) env->NewGlobalRef(declaring_class);
+            hook_item->is_static = env->CallIntMethod(hookMethod, get_modifiers) & kAccStatic;
+            hook_item->backup_method = env->FromReflectedMethod(backup);
+            env->DeleteLocalRef(declaring_class);
+        } else {
+            // the failed item stays in hooked_methods, but must not pin its hooker
+            env->DeleteGlobalRef(hook_item->hooker);
+            hook_item->hooker = nullptr;
+        }
+        hook_item->SetBackup(backup);
         env->DeleteLocalRef(hooker_object);
     }
     jobject backup = hook_item->GetBackup();
-    if (!backup) return JNI_FALSE;
+    if (!backup) return false;
     JNIMonitor monitor(env, backup);
     if (useModernApi) {
-        if (before_method_field == nullptr) {
-            auto callback_class = JNI_GetObjectClass(env, callback);
-            callback_ctor = JNI_GetMethodID(env, callback_class, "<init>", "(Ljava/lang/reflect/Method;Ljava/lang/reflect/Method;)V");
-            before_method_field = JNI_GetFieldID(env, callback_class, "beforeInvocation", "Ljava/lang/reflect/Method;");
-            after_method_field = JNI_GetFieldID(env, callback_class, "afterInvocation", "Ljava/lang/reflect/Method;");
-        }
-        auto before_method = JNI_GetObjectField(env, callback, before_method_field);
-        auto after_method = JNI_GetObjectField(env, callback, after_method_field);
-        auto callback_type = ModuleCallback {
-                .before_method = env->FromReflectedMethod(before_method.get()),
-                .after_method = env->FromReflectedMethod(after_method.get()),
-        };
-        hook_item->modern_callbacks.emplace(priority, callback_type);
+        hook_item->modern_callbacks.emplace(priority, env->NewGlobalRef(callback));
     } else {
         hook_item->legacy_callbacks.emplace(priority, env->NewGlobalRef(callback));
     }
-    return JNI_TRUE;
+    hook_item->PublishSnapshot(env);
+    return true;
+}
+}
+
+namespace lspd {
+LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, hookMethod, jboolean useModernApi, jobject hookMethod,
+                      jclass hooker, jint priority, jobject callback) {
+    bool newHook = false;
+#ifndef NDEBUG
+    struct finally {
+        std::chrono::steady_clock::time_point start = std::chrono::steady_clock::now();
+        bool &newHook;
+        ~finally() {
+            auto finish = std::chrono::steady_clock::now();
+            if (newHook) {
+                LOGV("New hook took {}us",
+                     std::chrono::duration_cast<std::chrono::microseconds>(finish - start).count());
+            }
+        }
+    } finally {
+        .newHook = newHook
+    };
+#endif
+    HookerMembers members{.hooker = hooker};
+    auto hooked = HookOne(env, useModernApi, hookMethod, members, priority, callback, newHook);
+    members.Release(env);
+    return hooked ? JNI_TRUE : JNI_FALSE;
+}
+
+LSP_DEF_NATIVE_METHOD(jbooleanArray, HookBridge, hookMethods, jboolean useModernApi,
+                      jobjectArray hookMethods, jclass hooker, jintArray priorities,
+                      jobjectArray callbacks) {
+    [[maybe_unused]] auto start = std::chrono::steady_clock::now();
+    auto count = env->GetArrayLength(hookMethods);
+    HookerMembers members{.hooker = hooker};
+    auto *priority = env->GetIntArrayElements(priorities, nullptr);
+    std::vector<jboolean> hooked(count);
+    [[maybe_unused]] size_t new_hooks = 0;
+    for (jsize i = 0; i < count; ++i) {
+        auto hook_method = env->GetObjectArrayElement(hookMethods, i);
+        auto callback = env->GetObjectArrayElement(callbacks, i);
+        bool newHook = false;
+        hooked[i] = HookOne(env, useModernApi, hook_method, members, priority[i], callback,
+                            newHook) ? JNI_TRUE : JNI_FALSE;
+        if (env->ExceptionCheck()) {
+            // the rest of the batch must not run with a pending exception
+            LOGE("Hooking method {} of the batch threw", i);
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+            hooked[i] = JNI_FALSE;
+        }
+        if (newHook) ++new_hooks;
+        env->DeleteLocalRef(callback);
+        env->DeleteLocalRef(hook_method);
+    }
+    env->ReleaseIntArrayElements(priorities, priority, JNI_ABORT);
+    members.Release(env);
+    auto result = env->NewBooleanArray(count);
+    env->SetBooleanArrayRegion(result, 0, count, hooked.data());
+    LOGV("Batch of {} hooks ({} new) took {}us", count, new_hooks,
+         std::chrono::duration_cast<std::chrono::microseconds>(
+                 std::chrono::steady_clock::now() - start).count());
+    return result;
 }
 
 LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, unhookMethod, jboolean useModernApi, jobject hookMethod, jobject callback) {
@@ -142,21 +420,13 @@ LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, unhookMethod, jboolean useModernApi,
     jobject backup = hook_item->GetBackup();
     if (!backup) return JNI_FALSE;
     JNIMonitor monitor(env, backup);
-    if (useModernApi) {
-        auto before_method = JNI_GetObjectField(env, callback, before_method_field);
-        auto before = env->FromReflectedMethod(before_method.get());
-        for (auto i = hook_item->modern_callbacks.begin(); i != hook_item->modern_callbacks.end(); ++i) {
-            if (before == i->second.before_method) {
-                hook_item->modern_callbacks.erase(i);
-                return JNI_TRUE;
-            }
-        }
-    } else {
-        for (auto i = hook_item->legacy_callbacks.begin(); i != hook_item->legacy_callbacks.end(); ++i) {
-            if (env->IsSameObject(i->second, callback)) {
-                hook_item->legacy_callbacks.erase(i);
-                return JNI_TRUE;
-            }
+    auto &callbacks = useModernApi ? hook_item->modern_callbacks : hook_item->legacy_callbacks;
+    for (auto i = callbacks.begin(); i != callbacks.end(); ++i) {
+        if (env->IsSameObject(i->second, callback)) {
+            env->DeleteGlobalRef(i->second);
+            callbacks.erase(i);
+            hook_item->PublishSnapshot(env);
+            return JNI_TRUE;
         }
     }
     return JNI_FALSE;
@@ -177,29 +447,43 @@ LSP_DEF_NATIVE_METHOD(jobject, HookBridge, invokeOriginalMethod, jobject hookMet
     return env->CallObjectMethod(hook_item ? hook_item->GetBackup() : hookMethod, invoke, thiz, args);
 }
 
+LSP_DEF_NATIVE_METHOD(jobject, HookBridge, invokeOriginal, jobject hookMethod, jcharArray shorty,
+                      jobjectArray parameterTypes, jobject thiz, jobjectArray args) {
+    auto target = env->FromReflectedMethod(hookMethod);
+    HookItem * hook_item = nullptr;
+    hooked_methods.if_contains(target, [&hook_item](const auto &it) {
+        hook_item = it.second.get();
+    });
+    jobject backup = hook_item ? hook_item->GetBackup() : nullptr;
+    if (!backup) return InvokeReflective(env, hookMethod, thiz, args);
+    auto param_len = env->GetArrayLength(shorty) - 1;
+    if (!args || env->GetArrayLength(args) != param_len ||
+        (!hook_item->is_static && (!thiz || !env->IsInstanceOf(thiz, hook_item->declaring_class)))) {
+        return InvokeReflective(env, backup, thiz, args);
+    }
+    std::vector<jchar> shorty_char(param_len + 1);
+    env->GetCharArrayRegion(shorty, 0, param_len + 1, shorty_char.data());
+    std::vector<jvalue> values(param_len);
+    std::vector<jobject> refs;
+    jobject result;
+    if (UnboxArgs(env, shorty_char.data(), parameterTypes, args, values, refs)) {
+        result = CallBoxed(env, shorty_char[0], hook_item->is_static, thiz,
+                           hook_item->declaring_class, hook_item->backup_method, values.data());
+    } else {
+        result = InvokeReflective(env, backup, thiz, args);
+    }
+    for (auto ref : refs) {
+        if (ref) env->DeleteLocalRef(ref);
+    }
+    return result;
+}
+
 LSP_DEF_NATIVE_METHOD(jobject, HookBridge, allocateObject, jclass cls) {
     return env->AllocObject(cls);
 }
 
 LSP_DEF_NATIVE_METHOD(jobject, HookBridge, invokeSpecialMethod, jobject method, jcharArray shorty,
                       jclass cls, jobject thiz, jobjectArray args) {
-    static auto* const get_int = env->GetMethodID(env->FindClass("java/lang/Integer"), "intValue", "()I");
-    static auto* const get_double = env->GetMethodID(env->FindClass("java/lang/Double"), "doubleValue", "()D");
-    static auto* const get_long = env->GetMethodID(env->FindClass("java/lang/Long"), "longValue", "()J");
-    static auto* const get_float = env->GetMethodID(env->FindClass("java/lang/Float"), "floatValue", "()F");
-    static auto* const get_short = env->GetMethodID(env->FindClass("java/lang/Short"), "shortValue", "()S");
-    static auto* const get_byte = env->GetMethodID(env->FindClass("java/lang/Byte"), "byteValue", "()B");
-    static auto* const get_char = env->GetMethodID(env->FindClass("java/lang/Character"), "charValue", "()C");
-    static auto* const get_boolean = env->GetMethodID(env->FindClass("java/lang/Boolean"), "booleanValue", "()Z");
-    static auto* const set_int = env->GetStaticMethodID(env->FindClass("java/lang/Integer"), "valueOf", "(I)Ljava/lang/Integer;");
-    static auto* const set_double = env->GetStaticMethodID(env->FindClass("java/lang/Double"), "valueOf", "(D)Ljava/lang/Double;");
-    static auto* const set_long = env->GetStaticMethodID(env->FindClass("java/lang/Long"), "valueOf", "(J)Ljava/lang/Long;");
-    static auto* const set_float = env->GetStaticMethodID(env->FindClass("java/lang/Float"), "valueOf", "(F)Ljava/lang/Float;");
-    static auto* const set_short = env->GetStaticMethodID(env->FindClass("java/lang/Short"), "valueOf", "(S)Ljava/lang/Short;");
-    static auto* const set_byte = env->GetStaticMethodID(env->FindClass("java/lang/Byte"), "valueOf", "(B)Ljava/lang/Byte;");
-    static auto* const set_char = env->GetStaticMethodID(env->FindClass("java/lang/Character"), "valueOf", "(C)Ljava/lang/Character;");
-    static auto* const set_boolean = env->GetStaticMethodID(env->FindClass("java/lang/Boolean"), "valueOf", "(Z)Ljava/lang/Boolean;");
-
     auto target = env->FromReflectedMethod(method);
     auto param_len = env->GetArrayLength(shorty) - 1;
     if (env->GetArrayLength(args) != param_len) {
@@ -210,79 +494,19 @@ LSP_DEF_NATIVE_METHOD(jobject, HookBridge, invokeSpecialMethod, jobject method,
         env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "this == null");
         return nullptr;
     }
+    std::vector<jchar> shorty_char(param_len + 1);
+    env->GetCharArrayRegion(shorty, 0, param_len + 1, shorty_char.data());
     std::vector<jvalue> a(param_len);
-    auto *const shorty_char = env->GetCharArrayElements(shorty, nullptr);
-    for (jint i = 0; i != param_len; ++i) {
-        jobject element;
-        switch(shorty_char[i + 1]) {
-            case 'I':
-                a[i].i = env->CallIntMethod(element = env->GetObjectArrayElement(args, i), get_int);
-                break;
-            case 'D':
-                a[i].d = env->CallDoubleMethod(element = env->GetObjectArrayElement(args, i), get_double);
-                break;
-            case 'J':
-                a[i].j = env->CallLongMethod(element = env->GetObjectArrayElement(args, i), get_long);
-                break;
-            case 'F':
-                a[i].f = env->CallFloatMethod(element = env->GetObjectArrayElement(args, i), get_float);
-                break;
-            case 'S':
-                a[i].s = env->CallShortMethod(element = env->GetObjectArrayElement(args, i), get_short);
-                break;
-            case 'B':
-                a[i].b = env->CallByteMethod(element = env->GetObjectArrayElement(args, i), get_byte);
-                break;
-            case 'C':
-                a[i].c = env->CallCharMethod(element = env->GetObjectArrayElement(args, i), get_char);
-                break;
-            case 'Z':
-                a[i].z = env->CallBooleanMethod(element = env->GetObjectArrayElement(args, i), get_boolean);
-                break;
-            default:
-            case 'L':
-                a[i].l = env->GetObjectArrayElement(args, i);
-                element = nullptr;
-                break;
-        }
-        if (element) env->DeleteLocalRef(element);
-        if (env->ExceptionCheck()) return nullptr;
-    }
+    std::vector<jobject> refs;
     jobject value = nullptr;
-    switch(shorty_char[0]) {
-        case 'I':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_int, env->CallNonvirtualIntMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'D':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_double, env->CallNonvirtualDoubleMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'J':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_long, env->CallNonvirtualLongMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'F':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_float, env->CallNonvirtualFloatMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'S':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_short, env->CallNonvirtualShortMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'B':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_byte, env->CallNonvirtualByteMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'C':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_char, env->CallNonvirtualCharMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'Z':
-            value = env->CallStaticObjectMethod(jclass{nullptr}, set_boolean, env->CallNonvirtualBooleanMethodA(thiz, cls, target, a.data()));
-            break;
-        case 'L':
-            value = env->CallNonvirtualObjectMethodA(thiz, cls, target, a.data());
-            break;
-        default:
-        case 'V':
-            env->CallNonvirtualVoidMethodA(thiz, cls, target, a.data());
-            break;
+    if (UnboxArgs(env, shorty_char.data(), nullptr, args, a, refs)) {
+        value = CallBoxed(env, shorty_char[0], false, thiz, cls, target, a.data());
+    } else {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "argument type mismatch");
+    }
+    for (auto ref : refs) {
+        if (ref) env->DeleteLocalRef(ref);
     }
-    env->ReleaseCharArrayElements(shorty, shorty_char, JNI_ABORT);
     return value;
 }
 
@@ -294,52 +518,88 @@ LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, setTrusted, jobject cookie) {
     return lsplant::MakeDexFileTrusted(env, cookie);
 }
 
-LSP_DEF_NATIVE_METHOD(jobjectArray, HookBridge, callbackSnapshot, jclass callback_class, jobject method) {
-    auto target = env->FromReflectedMethod(method);
-    HookItem *hook_item = nullptr;
-    hooked_methods.if_contains(target, [&hook_item](const auto &it) {
-        hook_item = it.second.get();
-    });
-    if (!hook_item) return nullptr;
-    jobject backup = hook_item->GetBackup();
-    if (!backup) return nullptr;
-    JNIMonitor monitor(env, backup);
-
-    auto res = env->NewObjectArray(2, env->FindClass("[Ljava/lang/Object;"), nullptr);
-    auto modern = env->NewObjectArray((jsize) hook_item->modern_callbacks.size(), env->FindClass("java/lang/Object"), nullptr);
-    auto legacy = env->NewObjectArray((jsize) hook_item->legacy_callbacks.size(), env->FindClass("java/lang/Object"), nullptr);
-    for (jsize i = 0; auto callback: hook_item->modern_callbacks) {
-        auto before_method = JNI_ToReflectedMethod(env, clazz, callback.second.before_method, JNI_TRUE);
-        auto after_method = JNI_ToReflectedMethod(env, clazz, callback.second.after_method, JNI_TRUE);
-        auto callback_object = JNI_NewObject(env, callback_class, callback_ctor, before_method, after_method);
-        env->SetObjectArrayElement(modern, i++, env->NewLocalRef(callback_object.get()));
-    }
-    for (jsize i = 0; auto callback: hook_item->legacy_callbacks) {
-        env->SetObjectArrayElement(legacy, i++, env->NewLocalRef(callback.second));
+LSP_DEF_NATIVE_METHOD(jboolean, HookBridge, setClassInitObserver, jclass observer) {
+    if (!NewLocalRef) return JNI_FALSE;
+    if (observer && !class_init_observer.load(std::memory_order_acquire)) {
+        auto method = env->GetStaticMethodID(observer, "onClassInitialized", "(Ljava/lang/Class;)V");
+        if (!method) {
+            env->ExceptionClear();
+            return JNI_FALSE;
+        }
+        on_class_initialized = method;
+        auto global = (jclass) env->NewGlobalRef(observer);
+        jclass expected = nullptr;
+        if (!class_init_observer.compare_exchange_strong(expected, global, std::memory_order_acq_rel)) {
+            env->DeleteGlobalRef(global);
+        }
     }
-    env->SetObjectArrayElement(res, 0, modern);
-    env->SetObjectArrayElement(res, 1, legacy);
-    return res;
+    observing_class_init.store(observer != nullptr, std::memory_order_release);
+    return JNI_TRUE;
 }
 
 static JNINativeMethod gMethods[] = {
     LSP_NATIVE_METHOD(HookBridge, hookMethod, "(ZLjava/lang/reflect/Executable;Ljava/lang/Class;ILjava/lang/Object;)Z"),
+    LSP_NATIVE_METHOD(HookBridge, hookMethods, "(Z[Ljava/lang/reflect/Executable;Ljava/lang/Class;[I[Ljava/lang/Object;)[Z"),
     LSP_NATIVE_METHOD(HookBridge, unhookMethod, "(ZLjava/lang/reflect/Executable;Ljava/lang/Object;)Z"),
     LSP_NATIVE_METHOD(HookBridge, deoptimizeMethod, "(Ljava/lang/reflect/Executable;)Z"),
     LSP_NATIVE_METHOD(HookBridge, invokeOriginalMethod, "(Ljava/lang/reflect/Executable;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;"),
+    LSP_NATIVE_METHOD(HookBridge, invokeOriginal, "(Ljava/lang/reflect/Executable;[C[Ljava/lang/Class;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;"),
     LSP_NATIVE_METHOD(HookBridge, invokeSpecialMethod, "(Ljava/lang/reflect/Executable;[CLjava/lang/Class;Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;"),
     LSP_NATIVE_METHOD(HookBridge, allocateObject, "(Ljava/lang/Class;)Ljava/lang/Object;"),
     LSP_NATIVE_METHOD(HookBridge, instanceOf, "(Ljava/lang/Object;Ljava/lang/Class;)Z"),
     LSP_NATIVE_METHOD(HookBridge, setTrusted, "(Ljava/lang/Object;)Z"),
-    LSP_NATIVE_METHOD(HookBridge, callbackSnapshot, "(Ljava/lang/Class;Ljava/lang/reflect/Executable;)[[Ljava/lang/Object;"),
+    LSP_NATIVE_METHOD(HookBridge, setClassInitObserver, "(Ljava/lang/Class;)Z"),
 };
 
+bool InstallClassInitHook(const lsplant::HookHandler &handler) {
+    auto new_local_ref = GetArt()->getSymbAddress<jobject (*)(JNIEnv *, void *)>(
+            "_ZN3art9JNIEnvExt11NewLocalRefEPNS_6mirror6ObjectE");
+    if (!new_local_ref || !handler(InitializeClass_)) {
+        LOGE("Failed to observe class initialization, deferred hooks are installed eagerly");
+        return false;
+    }
+    NewLocalRef = new_local_ref;
+    return true;
+}
+
 void RegisterHookBridge(JNIEnv *env) {
+    env->GetJavaVM(&java_vm);
     jclass method = env->FindClass("java/lang/reflect/Method");
     invoke = env->GetMethodID(
             method, "invoke",
             "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
     env->DeleteLocalRef(method);
+    auto executable = env->FindClass("java/lang/reflect/Executable");
+    get_declaring_class = env->GetMethodID(executable, "getDeclaringClass", "()Ljava/lang/Class;");
+    get_modifiers = env->GetMethodID(executable, "getModifiers", "()I");
+    env->DeleteLocalRef(executable);
+    auto ite = env->FindClass("java/lang/reflect/InvocationTargetException");
+    invocation_target_exception = (jclass) env->NewGlobalRef(ite);
+    get_cause = env->GetMethodID(ite, "getCause", "()Ljava/lang/Throwable;");
+    env->DeleteLocalRef(ite);
+    constexpr std::array<std::array<const char *, 4>, 8> boxes{{
+        {"java/lang/Boolean", "booleanValue", "()Z", "(Z)Ljava/lang/Boolean;"},
+        {"java/lang/Byte", "byteValue", "()B", "(B)Ljava/lang/Byte;"},
+        {"java/lang/Character", "charValue", "()C", "(C)Ljava/lang/Character;"},
+        {"java/lang/Short", "shortValue", "()S", "(S)Ljava/lang/Short;"},
+        {"java/lang/Integer", "intValue", "()I", "(I)Ljava/lang/Integer;"},
+        {"java/lang/Long", "longValue", "()J", "(J)Ljava/lang/Long;"},
+        {"java/lang/Float", "floatValue", "()F", "(F)Ljava/lang/Float;"},
+        {"java/lang/Double", "doubleValue", "()D", "(D)Ljava/lang/Double;"},
+    }};
+    for (size_t i = 0; i < boxes.size(); ++i) {
+        auto &[name, unbox, unbox_sig, box_sig] = boxes[i];
+        auto clazz = env->FindClass(name);
+        boxed_types[i] = {
+            .clazz = (jclass) env->NewGlobalRef(clazz),
+            .unbox = env->GetMethodID(clazz, unbox, unbox_sig),
+            .box = env->GetStaticMethodID(clazz, "valueOf", box_sig),
+        };
+        env->DeleteLocalRef(clazz);
+    }
+    auto object = env->FindClass("java/lang/Object");
+    object_class = (jclass) env->NewGlobalRef(object);
+    env->DeleteLocalRef(object);
     REGISTER_LSP_NATIVE_METHODS(HookBridge);
 }
 } // namespace lspd
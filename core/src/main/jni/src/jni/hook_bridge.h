@@ -20,6 +20,10 @@
 
 #include <jni.h>
 
+#include "utils/hook_helper.hpp"
+
 namespace lspd {
     void RegisterHookBridge(JNIEnv *env);
+
+    bool InstallClassInitHook(const lsplant::HookHandler &handler);
 }
@@ -0,0 +1,262 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.service;
+
+import static org.lsposed.lspd.service.ServiceManager.TAG;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Writes and point lookups on the modules, scope and configs tables through statements that are
+ * compiled once and reused. Statements are not thread safe, so every use holds the lock of this
+ * object. Transactions take the same lock before the database, so that a thread in a transaction
+ * never waits for a thread that waits for the database.
+ *
+ * <p>Apart from creating and migrating the schema, every query issued on these tables is one of
+ * the constants below, so that {@link ConfigManager#explainQueryPlans()} audits the text that is
+ * executed.
+ */
+final class ConfigDao {
+    static final String SELECT_APP_MODULE_APKS = "SELECT module_pkg_name, apk_path FROM scope INNER JOIN modules ON scope.mid = modules.mid WHERE app_pkg_name = ? AND enabled = 1";
+    static final String SELECT_ENABLED_MODULE_APKS = "SELECT DISTINCT module_pkg_name, apk_path FROM modules WHERE enabled = 1";
+    static final String SELECT_ENABLED_SCOPE = "SELECT app_pkg_name, module_pkg_name, user_id FROM scope INNER JOIN modules ON scope.mid = modules.mid WHERE enabled = 1";
+    static final String SELECT_APP_MODULES = "SELECT module_pkg_name FROM scope INNER JOIN modules ON scope.mid = modules.mid WHERE enabled = 1 AND app_pkg_name = ? AND user_id = ?";
+    static final String SELECT_MODULE_SCOPE = "SELECT app_pkg_name, user_id FROM scope INNER JOIN modules ON scope.mid = modules.mid WHERE modules.module_pkg_name = ?";
+    static final String SELECT_MODULE_CONFIGS = "SELECT `group`, `key`, data FROM configs WHERE module_pkg_name = ? AND user_id = ?";
+    static final String SELECT_AUTO_INCLUDE = "SELECT auto_include FROM modules WHERE module_pkg_name = ? AND auto_include = 1";
+    static final String SELECT_ENABLED_MODULES = "SELECT module_pkg_name FROM modules WHERE enabled = 1";
+    static final String SELECT_AUTO_INCLUDE_MODULES = "SELECT module_pkg_name FROM modules WHERE auto_include = 1";
+    static final String SELECT_MODULE_ID = "SELECT mid FROM modules WHERE module_pkg_name = ?";
+    static final String SELECT_SCOPE = "SELECT app_pkg_name, user_id FROM scope WHERE mid = ?";
+    static final String INSERT_SCOPE = "INSERT OR IGNORE INTO scope (mid, app_pkg_name, user_id) VALUES (?, ?, ?)";
+    static final String DELETE_SCOPE = "DELETE FROM scope WHERE mid = ? AND app_pkg_name = ? AND user_id = ?";
+    static final String DELETE_MODULE_SCOPE = "DELETE FROM scope WHERE mid = ? AND user_id = ?";
+    static final String DELETE_APP_SCOPE = "DELETE FROM scope WHERE app_pkg_name = ? AND user_id = ?";
+    static final String REPLACE_CONFIG = "INSERT OR REPLACE INTO configs (module_pkg_name, user_id, `group`, `key`, data) VALUES (?, ?, ?, ?, ?)";
+    static final String DELETE_CONFIG = "DELETE FROM configs WHERE module_pkg_name = ? AND user_id = ? AND `group` = ? AND `key` = ?";
+    static final String DELETE_CONFIG_GROUP = "DELETE FROM configs WHERE module_pkg_name = ? AND user_id = ? AND `group` = ?";
+    static final String UPDATE_MODULE_ENABLED = "UPDATE modules SET enabled = ? WHERE module_pkg_name = ?";
+    static final String UPDATE_MODULE_AUTO_INCLUDE = "UPDATE modules SET auto_include = ? WHERE module_pkg_name = ?";
+    static final String UPDATE_MODULE_APK_PATH = "UPDATE OR IGNORE modules SET apk_path = ? WHERE module_pkg_name = ?";
+    static final String INSERT_MODULE = "INSERT OR IGNORE INTO modules (module_pkg_name, apk_path) VALUES (?, ?)";
+    static final String DELETE_MODULE = "DELETE FROM modules WHERE module_pkg_name = ?";
+
+    static final String[] QUERIES = {
+            SELECT_APP_MODULE_APKS,
+            SELECT_ENABLED_MODULE_APKS,
+            SELECT_ENABLED_SCOPE,
+            SELECT_APP_MODULES,
+            SELECT_MODULE_SCOPE,
+            SELECT_MODULE_CONFIGS,
+            SELECT_AUTO_INCLUDE,
+            SELECT_ENABLED_MODULES,
+            SELECT_AUTO_INCLUDE_MODULES,
+            SELECT_MODULE_ID,
+            SELECT_SCOPE,
+            INSERT_SCOPE,
+            DELETE_SCOPE,
+            DELETE_MODULE_SCOPE,
+            DELETE_APP_SCOPE,
+            REPLACE_CONFIG,
+            DELETE_CONFIG,
+            DELETE_CONFIG_GROUP,
+            UPDATE_MODULE_ENABLED,
+            UPDATE_MODULE_AUTO_INCLUDE,
+            UPDATE_MODULE_APK_PATH,
+            INSERT_MODULE,
+            DELETE_MODULE,
+    };
+
+    private final SQLiteDatabase db;
+
+    private SQLiteStatement selectModuleId;
+    private SQLiteStatement insertScope;
+    private SQLiteStatement deleteScope;
+    private SQLiteStatement deleteAppScope;
+    private SQLiteStatement replaceConfig;
+    private SQLiteStatement deleteConfig;
+    private SQLiteStatement deleteConfigGroup;
+    private SQLiteStatement deleteModuleScope;
+    private SQLiteStatement updateModuleEnabled;
+    private SQLiteStatement updateModuleAutoInclude;
+    private SQLiteStatement updateModuleApkPath;
+    private SQLiteStatement insertModule;
+    private SQLiteStatement deleteModule;
+
+    ConfigDao(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    private SQLiteStatement compile(SQLiteStatement statement, String sql) {
+        if (statement == null) statement = db.compileStatement(sql);
+        else statement.clearBindings();
+        return statement;
+    }
+
+    synchronized <T> T executeInTransaction(Supplier<T> execution) {
+        try {
+            db.beginTransaction();
+            var res = execution.get();
+            db.setTransactionSuccessful();
+            return res;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Runs {@code execution} in a transaction and logs how long it took as {@code operation}.
+     */
+    <T> T executeInTransaction(String operation, Supplier<T> execution) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            return executeInTransaction(execution);
+        } finally {
+            Log.d(TAG, operation + " took " + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    synchronized int getModuleId(String packageName) {
+        selectModuleId = compile(selectModuleId, SELECT_MODULE_ID);
+        selectModuleId.bindString(1, packageName);
+        try {
+            return (int) selectModuleId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    // app_pkg_name, user_id
+    @NonNull
+    Set<Pair<String, Integer>> getScope(int mid) {
+        var scope = new HashSet<Pair<String, Integer>>();
+        try (Cursor cursor = db.rawQuery(SELECT_SCOPE, new String[]{String.valueOf(mid)})) {
+            while (cursor.moveToNext()) {
+                scope.add(new Pair<>(cursor.getString(0), cursor.getInt(1)));
+            }
+        }
+        return scope;
+    }
+
+    synchronized boolean insertScope(int mid, String appPackageName, int userId) {
+        insertScope = compile(insertScope, INSERT_SCOPE);
+        insertScope.bindLong(1, mid);
+        insertScope.bindString(2, appPackageName);
+        insertScope.bindLong(3, userId);
+        return insertScope.executeInsert() != -1;
+    }
+
+    synchronized boolean deleteScope(int mid, String appPackageName, int userId) {
+        deleteScope = compile(deleteScope, DELETE_SCOPE);
+        deleteScope.bindLong(1, mid);
+        deleteScope.bindString(2, appPackageName);
+        deleteScope.bindLong(3, userId);
+        return deleteScope.executeUpdateDelete() > 0;
+    }
+
+    synchronized boolean deleteModuleScope(int mid, int userId) {
+        deleteModuleScope = compile(deleteModuleScope, DELETE_MODULE_SCOPE);
+        deleteModuleScope.bindLong(1, mid);
+        deleteModuleScope.bindLong(2, userId);
+        return deleteModuleScope.executeUpdateDelete() > 0;
+    }
+
+    synchronized boolean deleteAppScope(String appPackageName, int userId) {
+        deleteAppScope = compile(deleteAppScope, DELETE_APP_SCOPE);
+        deleteAppScope.bindString(1, appPackageName);
+        deleteAppScope.bindLong(2, userId);
+        return deleteAppScope.executeUpdateDelete() > 0;
+    }
+
+    synchronized void replaceConfig(String modulePackageName, int userId, String group, String key, byte[] data) {
+        replaceConfig = compile(replaceConfig, REPLACE_CONFIG);
+        replaceConfig.bindString(1, modulePackageName);
+        replaceConfig.bindLong(2, userId);
+        replaceConfig.bindString(3, group);
+        replaceConfig.bindString(4, key);
+        replaceConfig.bindBlob(5, data);
+        replaceConfig.executeInsert();
+    }
+
+    synchronized void deleteConfig(String modulePackageName, int userId, String group, String key) {
+        deleteConfig = compile(deleteConfig, DELETE_CONFIG);
+        deleteConfig.bindString(1, modulePackageName);
+        deleteConfig.bindLong(2, userId);
+        deleteConfig.bindString(3, group);
+        deleteConfig.bindString(4, key);
+        deleteConfig.executeUpdateDelete();
+    }
+
+    synchronized void deleteConfigGroup(String modulePackageName, int userId, String group) {
+        deleteConfigGroup = compile(deleteConfigGroup, DELETE_CONFIG_GROUP);
+        deleteConfigGroup.bindString(1, modulePackageName);
+        deleteConfigGroup.bindLong(2, userId);
+        deleteConfigGroup.bindString(3, group);
+        deleteConfigGroup.executeUpdateDelete();
+    }
+
+    synchronized boolean setModuleEnabled(String packageName, boolean enabled) {
+        updateModuleEnabled = compile(updateModuleEnabled, UPDATE_MODULE_ENABLED);
+        updateModuleEnabled.bindLong(1, enabled ? 1 : 0);
+        updateModuleEnabled.bindString(2, packageName);
+        return updateModuleEnabled.executeUpdateDelete() > 0;
+    }
+
+    synchronized boolean setModuleAutoInclude(String packageName, boolean autoInclude) {
+        updateModuleAutoInclude = compile(updateModuleAutoInclude, UPDATE_MODULE_AUTO_INCLUDE);
+        updateModuleAutoInclude.bindLong(1, autoInclude ? 1 : 0);
+        updateModuleAutoInclude.bindString(2, packageName);
+        return updateModuleAutoInclude.executeUpdateDelete() > 0;
+    }
+
+    synchronized int updateModuleApkPath(String packageName, String apkPath) {
+        updateModuleApkPath = compile(updateModuleApkPath, UPDATE_MODULE_APK_PATH);
+        updateModuleApkPath.bindString(1, apkPath);
+        updateModuleApkPath.bindString(2, packageName);
+        return updateModuleApkPath.executeUpdateDelete();
+    }
+
+    // row id of the new module, or -1 if it already exists
+    synchronized long insertModule(String packageName, String apkPath) {
+        insertModule = compile(insertModule, INSERT_MODULE);
+        insertModule.bindString(1, packageName);
+        insertModule.bindString(2, apkPath);
+        return insertModule.executeInsert();
+    }
+
+    synchronized boolean deleteModule(String packageName) {
+        deleteModule = compile(deleteModule, DELETE_MODULE);
+        deleteModule.bindString(1, packageName);
+        return deleteModule.executeUpdateDelete() > 0;
+    }
+}
@@ -74,6 +74,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -94,9 +95,12 @@ public class ConfigManager {
     private static ConfigManager instance = null;
 
     private final SQLiteDatabase db = openDb();
+    private final ConfigDao dao = new ConfigDao(db);
 
     private boolean verboseLog = true;
     private boolean logWatchdog = true;
+    private boolean hookMetrics = false;
+    private int hookSamplingInterval = 0;
     private boolean dexObfuscate = true;
     private boolean enableStatusNotification = true;
     private Path miscPath = null;
@@ -137,6 +141,60 @@ public class ConfigManager {
         }
     }
 
+    // Modules of every hooked process, never modified once published
+    static final class ScopeSnapshot {
+        static final ScopeSnapshot EMPTY = new ScopeSnapshot(0, Collections.emptyMap(), new IntIndex<>(0), new IntIndex<>(0));
+
+        final long generation;
+        final Map<ProcessScope, Module[]> modules;
+        // uid of every hooked process
+        final IntIndex<Boolean> hookedUids;
+        // appId, Module
+        final IntIndex<Module> modulesByAppId;
+
+        ScopeSnapshot(long generation, Map<ProcessScope, Module[]> modules, IntIndex<Boolean> hookedUids, IntIndex<Module> modulesByAppId) {
+            this.generation = generation;
+            this.modules = modules;
+            this.hookedUids = hookedUids;
+            this.modulesByAppId = modulesByAppId;
+        }
+    }
+
+    // What one scoped app in one user adds to scopeSnapshot
+    private static class AppScope {
+        final List<ProcessScope> processes;
+        final Map<ProcessScope, List<Module>> modules = new HashMap<>();
+
+        AppScope(List<ProcessScope> processes) {
+            this.processes = processes;
+        }
+
+        void add(Module module, boolean self) throws RemoteException {
+            for (ProcessScope processScope : processes) {
+                modules.computeIfAbsent(processScope,
+                        ignored -> new ArrayList<>()).add(module);
+                // Always allow the module to inject itself
+                if (self) {
+                    var appId = processScope.uid % PER_USER_RANGE;
+                    for (var user : UserService.getUsers()) {
+                        var moduleUid = user.id * PER_USER_RANGE + appId;
+                        if (moduleUid == processScope.uid) continue; // skip duplicate
+                        var moduleSelf = new ProcessScope(processScope.processName, moduleUid);
+                        modules.computeIfAbsent(moduleSelf,
+                                ignored -> new ArrayList<>()).add(module);
+                    }
+                }
+            }
+        }
+
+        boolean hasUid(int uid) {
+            for (var processScope : modules.keySet()) {
+                if (processScope.uid == uid) return true;
+            }
+            return false;
+        }
+    }
+
     private static final String CREATE_MODULES_TABLE = "CREATE TABLE IF NOT EXISTS modules (" +
             "mid integer PRIMARY KEY AUTOINCREMENT," +
             "module_pkg_name text NOT NULL UNIQUE," +
@@ -169,7 +227,11 @@ public class ConfigManager {
             "  ON DELETE CASCADE" +
             ");";
 
-    private final Map<ProcessScope, List<Module>> cachedScope = new ConcurrentHashMap<>();
+    // replaced as a whole whenever the scope changes, so that forks never see a partial scope
+    private volatile ScopeSnapshot scopeSnapshot = ScopeSnapshot.EMPTY;
+
+    // packageName, userId, guarded by this
+    private final Map<Pair<String, Integer>, AppScope> cachedAppScope = new LinkedHashMap<>();
 
     // packageName, Module
     private final Map<String, Module> cachedModule = new ConcurrentHashMap<>();
@@ -216,7 +278,7 @@ public class ConfigManager {
     @SuppressLint("BlockedPrivateApi")
     public List<Module> getModulesForSystemServer() {
         List<Module> modules = new LinkedList<>();
-        try (Cursor cursor = db.query("scope INNER JOIN modules ON scope.mid = modules.mid", new String[]{"module_pkg_name", "apk_path"}, "app_pkg_name=? AND enabled=1", new String[]{"system"}, null, null, null)) {
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_APP_MODULE_APKS, new String[]{"system"})) {
             int apkPathIdx = cursor.getColumnIndex("apk_path");
             int pkgNameIdx = cursor.getColumnIndex("module_pkg_name");
             while (cursor.moveToNext()) {
@@ -252,7 +314,7 @@ public class ConfigManager {
             }
         }
 
-        return modules.parallelStream().filter(m -> {
+        var result = modules.parallelStream().filter(m -> {
             var file = ConfigFileManager.loadModule(m.apkPath, dexObfuscate);
             if (file == null) {
                 Log.w(TAG, "Can not load " + m.apkPath + ", skip!");
@@ -262,6 +324,8 @@ public class ConfigManager {
             cachedModule.putIfAbsent(m.packageName, m);
             return true;
         }).collect(Collectors.toList());
+        publishScopes();
+        return result;
     }
 
     private synchronized void updateConfig() {
@@ -273,6 +337,12 @@ public class ConfigManager {
         bool = config.get("enable_log_watchdog");
         logWatchdog = bool == null || (boolean) bool;
 
+        bool = config.get("enable_hook_metrics");
+        hookMetrics = bool != null && (boolean) bool;
+
+        Integer interval = (Integer) config.get("hook_sampling_interval");
+        hookSamplingInterval = interval == null ? 0 : interval;
+
         bool = config.get("enable_dex_obfuscate");
         dexObfuscate = bool == null || (boolean) bool;
 
@@ -307,6 +377,7 @@ public class ConfigManager {
         updateManager(false);
 
         cacheHandler.post(this::getPreloadDex);
+        cacheHandler.post(FrameworkIndex::get);
     }
 
     public synchronized void updateManager(boolean uninstalled) {
@@ -358,14 +429,7 @@ public class ConfigManager {
 
 
     private <T> T executeInTransaction(Supplier<T> execution) {
-        try {
-            db.beginTransaction();
-            var res = execution.get();
-            db.setTransactionSuccessful();
-            return res;
-        } finally {
-            db.endTransaction();
-        }
+        return dao.executeInTransaction(execution);
     }
 
     private void executeInTransaction(Runnable execution) {
@@ -378,12 +442,12 @@ public class ConfigManager {
     private void initDB() {
         db.setForeignKeyConstraintsEnabled(true);
         int oldVersion = db.getVersion();
-        if (oldVersion >= 4) {
+        if (oldVersion >= 5) {
             // Database is already up to date.
             return;
         }
 
-        Log.i(TAG, "Initializing/Upgrading database from version " + oldVersion + " to 4");
+        Log.i(TAG, "Initializing/Upgrading database from version " + oldVersion + " to 5");
         db.beginTransaction();
         try {
             if (oldVersion == 0) {
@@ -435,9 +499,18 @@ public class ConfigManager {
                     Log.w(TAG, "Could not add auto_include column, it may already exist.", ex);
                 }
             }
-            db.setVersion(4);
+            if (oldVersion < 5) {
+                // Upgrade from 4 to 5: Index the scope by app and the modules by flag, so that
+                // system server startup, app scope updates and module listings do not scan.
+                db.compileStatement("CREATE INDEX IF NOT EXISTS scope_app_idx ON scope (app_pkg_name, user_id, mid);").execute();
+                db.compileStatement("CREATE INDEX IF NOT EXISTS modules_enabled_idx ON modules (enabled, module_pkg_name);").execute();
+                db.compileStatement("CREATE INDEX IF NOT EXISTS modules_auto_include_idx ON modules (auto_include, module_pkg_name);").execute();
+                // The primary key of configs already starts with (module_pkg_name, user_id)
+                db.compileStatement("DROP INDEX IF EXISTS configs_idx;").execute();
+            }
+            db.setVersion(5);
             db.setTransactionSuccessful();
-            Log.i(TAG, "Database upgrade to version 4 successful.");
+            Log.i(TAG, "Database upgrade to version 5 successful.");
         } catch (Throwable e) {
             Log.e(TAG, "Failed to initialize or upgrade database, transaction rolled back.", e);
         } finally {
@@ -467,8 +540,7 @@ public class ConfigManager {
     Map<String, HashMap<String, Object>> fetchModuleConfig(String name, int user_id) {
         var config = new ConcurrentHashMap<String, HashMap<String, Object>>();
 
-        try (Cursor cursor = db.query("configs", new String[]{"`group`", "`key`", "data"},
-                "module_pkg_name = ? and user_id = ?", new String[]{name, String.valueOf(user_id)}, null, null, null)) {
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_MODULE_CONFIGS, new String[]{name, String.valueOf(user_id)})) {
             if (cursor == null) {
                 Log.e(TAG, "db cache failed");
                 return config;
@@ -498,22 +570,16 @@ public class ConfigManager {
         var config = cachedConfig.computeIfAbsent(new Pair<>(moduleName, userId), module -> fetchModuleConfig(module.first, module.second));
         config.compute(group, (g, prefs) -> {
             HashMap<String, Object> newPrefs = prefs == null ? new HashMap<>() : new HashMap<>(prefs);
-            executeInTransaction(() -> {
+            dao.executeInTransaction("update " + values.size() + " prefs of " + moduleName + "/" + userId, () -> {
                 for (var entry : values.entrySet()) {
                     var key = entry.getKey();
                     var value = entry.getValue();
                     if (value instanceof Serializable) {
                         newPrefs.put(key, value);
-                        var contents = new ContentValues();
-                        contents.put("`group`", group);
-                        contents.put("`key`", key);
-                        contents.put("data", SerializationUtilsX.serialize((Serializable) value));
-                        contents.put("module_pkg_name", moduleName);
-                        contents.put("user_id", String.valueOf(userId));
-                        db.insertWithOnConflict("configs", null, contents, SQLiteDatabase.CONFLICT_REPLACE);
+                        dao.replaceConfig(moduleName, userId, group, key, SerializationUtilsX.serialize((Serializable) value));
                     } else {
                         newPrefs.remove(key);
-                        db.delete("configs", "module_pkg_name=? and user_id=? and `group`=? and `key`=?", new String[]{moduleName, String.valueOf(userId), group, key});
+                        dao.deleteConfig(moduleName, userId, group, key);
                     }
                 }
                 var bundle = new Bundle();
@@ -521,13 +587,14 @@ public class ConfigManager {
                 if (bundle.size() > 1024 * 1024) {
                     throw new IllegalArgumentException("Preference too large");
                 }
+                return null;
             });
             return newPrefs;
         });
     }
 
     public void deleteModulePrefs(String moduleName, int userId, String group) {
-        db.delete("configs", "module_pkg_name=? and user_id=? and `group`=?", new String[]{moduleName, String.valueOf(userId), group});
+        dao.deleteConfigGroup(moduleName, userId, group);
         var config = cachedConfig.getOrDefault(new Pair<>(moduleName, userId), null);
         if (config != null) {
             config.remove(group);
@@ -545,7 +612,8 @@ public class ConfigManager {
             lastModuleCacheTime = 0;
         }
         cachedModule.clear();
-        cachedScope.clear();
+        cachedAppScope.clear();
+        scopeSnapshot = new ScopeSnapshot(scopeSnapshot.generation + 1, Collections.emptyMap(), new IntIndex<>(0), new IntIndex<>(0));
     }
 
     private synchronized void cacheModules() {
@@ -556,8 +624,7 @@ public class ConfigManager {
             else lastModuleCacheTime = SystemClock.elapsedRealtime();
         }
         Set<SharedMemory> toClose = ConcurrentHashMap.newKeySet();
-        try (Cursor cursor = db.query(true, "modules", new String[]{"module_pkg_name", "apk_path"},
-                "enabled = 1", null, null, null, null, null)) {
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_ENABLED_MODULE_APKS, null)) {
             if (cursor == null) {
                 Log.e(TAG, "db cache failed");
                 return;
@@ -649,7 +716,10 @@ public class ConfigManager {
         for (var module : cachedModule.entrySet()) {
             Log.d(TAG, module.getKey() + " " + module.getValue().apkPath);
         }
+        var generation = scopeSnapshot.generation;
         cacheScopes();
+        // index the modules even if the scope is up to date
+        if (scopeSnapshot.generation == generation) publishScopes();
         toClose.forEach(SharedMemory::close);
     }
 
@@ -660,9 +730,9 @@ public class ConfigManager {
             if (lastScopeCacheTime >= requestScopeCacheTime) return;
             else lastScopeCacheTime = SystemClock.elapsedRealtime();
         }
-        cachedScope.clear();
-        try (Cursor cursor = db.query("scope INNER JOIN modules ON scope.mid = modules.mid", new String[]{"app_pkg_name", "module_pkg_name", "user_id"},
-                "enabled = 1", null, null, null, null)) {
+        long start = SystemClock.elapsedRealtime();
+        cachedAppScope.clear();
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_ENABLED_SCOPE, null)) {
             int appPkgNameIdx = cursor.getColumnIndex("app_pkg_name");
             int modulePkgNameIdx = cursor.getColumnIndex("module_pkg_name");
             int userIdIdx = cursor.getColumnIndex("user_id");
@@ -670,7 +740,6 @@ public class ConfigManager {
             final var obsoletePackages = new HashSet<Application>();
             final var obsoleteModules = new HashSet<Application>();
             final var moduleAvailability = new HashMap<Pair<String, Integer>, Boolean>();
-            final var cachedProcessScope = new HashMap<Pair<String, Integer>, List<ProcessScope>>();
 
             final var denylist = new HashSet<>(getDenyListPackages());
             while (cursor.moveToNext()) {
@@ -681,12 +750,7 @@ public class ConfigManager {
 
                 // check if module is present in this user
                 if (!moduleAvailability.computeIfAbsent(new Pair<>(modulePackageName, app.userId), n -> {
-                    var available = false;
-                    try {
-                        available = PackageService.isPackageAvailable(n.first, n.second, true) && cachedModule.containsKey(modulePackageName);
-                    } catch (Throwable e) {
-                        Log.w(TAG, "check package availability ", e);
-                    }
+                    var available = isModuleAvailable(n.first, n.second);
                     if (!available) {
                         var obsoleteModule = new Application();
                         obsoleteModule.packageName = modulePackageName;
@@ -700,36 +764,18 @@ public class ConfigManager {
                 if (app.packageName.equals("system")) continue;
 
                 try {
-                    List<ProcessScope> processesScope = cachedProcessScope.computeIfAbsent(new Pair<>(app.packageName, app.userId), (k) -> {
-                        try {
-                            if (denylist.contains(app.packageName))
-                                Log.w(TAG, app.packageName + " is on denylist. It may not take effect.");
-                            return getAssociatedProcesses(app);
-                        } catch (RemoteException e) {
-                            return Collections.emptyList();
-                        }
+                    AppScope appScope = cachedAppScope.computeIfAbsent(new Pair<>(app.packageName, app.userId), (k) -> {
+                        if (denylist.contains(app.packageName))
+                            Log.w(TAG, app.packageName + " is on denylist. It may not take effect.");
+                        return new AppScope(getAssociatedProcessesOrEmpty(app));
                     });
-                    if (processesScope.isEmpty()) {
+                    if (appScope.processes.isEmpty()) {
                         obsoletePackages.add(app);
                         continue;
                     }
                     var module = cachedModule.get(modulePackageName);
                     assert module != null;
-                    for (ProcessScope processScope : processesScope) {
-                        cachedScope.computeIfAbsent(processScope,
-                                ignored -> new LinkedList<>()).add(module);
-                        // Always allow the module to inject itself
-                        if (modulePackageName.equals(app.packageName)) {
-                            var appId = processScope.uid % PER_USER_RANGE;
-                            for (var user : UserService.getUsers()) {
-                                var moduleUid = user.id * PER_USER_RANGE + appId;
-                                if (moduleUid == processScope.uid) continue; // skip duplicate
-                                var moduleSelf = new ProcessScope(processScope.processName, moduleUid);
-                                cachedScope.computeIfAbsent(moduleSelf,
-                                        ignored -> new LinkedList<>()).add(module);
-                            }
-                        }
-                    }
+                    appScope.add(module, modulePackageName.equals(app.packageName));
                 } catch (RemoteException e) {
                     Log.e(TAG, Log.getStackTraceString(e));
                 }
@@ -738,6 +784,7 @@ public class ConfigManager {
                 for (Application obsoletePackage : obsoletePackages) {
                     Log.d(TAG, "removing obsolete package: " + obsoletePackage.packageName + "/" + obsoletePackage.userId);
                     removeAppWithoutCache(obsoletePackage);
+                    cachedAppScope.remove(new Pair<>(obsoletePackage.packageName, obsoletePackage.userId));
                 }
                 for (Application obsoleteModule : obsoleteModules) {
                     Log.d(TAG, "removing obsolete module: " + obsoleteModule.packageName + "/" + obsoleteModule.userId);
@@ -750,32 +797,154 @@ public class ConfigManager {
                 return;
             }
         }
-        Log.d(TAG, "cached scope");
-        cachedScope.forEach((ps, modules) -> {
+        publishScopes();
+        Log.i(TAG, "cached scope of " + cachedAppScope.size() + " apps in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        scopeSnapshot.modules.forEach((ps, modules) -> {
             Log.d(TAG, ps.processName + "/" + ps.uid);
-            modules.forEach(module -> Log.d(TAG, "\t" + module.packageName));
+            for (var module : modules) Log.d(TAG, "\t" + module.packageName);
+        });
+    }
+
+    /**
+     * Recomputes only the scope of the apps running as {@code uid} and of {@code packageName}
+     * in the user of {@code uid}, after they were installed, updated or removed. Falls back to
+     * {@link #cacheScopes()} if the whole scope is stale or a module of the apps is gone.
+     */
+    private synchronized void cacheAppScopes(int uid, @Nullable String packageName) {
+        // skip caching when pm is not yet available
+        if (!PackageService.isAlive()) return;
+        boolean stale;
+        synchronized (cacheHandler) {
+            stale = lastScopeCacheTime == 0 || lastScopeCacheTime < requestScopeCacheTime;
+        }
+        if (stale) {
+            cacheScopes();
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        var userId = uid / PER_USER_RANGE;
+        var apps = new ArrayList<Pair<String, Integer>>();
+        if (packageName != null) apps.add(new Pair<>(packageName, userId));
+        cachedAppScope.forEach((app, appScope) -> {
+            if (appScope.hasUid(uid) && !apps.contains(app)) apps.add(app);
+        });
+        for (var key : apps) {
+            var app = new Application();
+            app.packageName = key.first;
+            app.userId = key.second;
+            var modulePackageNames = new ArrayList<String>();
+            try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_APP_MODULES, new String[]{app.packageName, String.valueOf(app.userId)})) {
+                while (cursor.moveToNext()) {
+                    modulePackageNames.add(cursor.getString(0));
+                }
+            }
+            // system server always loads database
+            if (modulePackageNames.isEmpty() || app.packageName.equals("system")) {
+                cachedAppScope.remove(key);
+                continue;
+            }
+            var appScope = new AppScope(getAssociatedProcessesOrEmpty(app));
+            if (appScope.processes.isEmpty()) {
+                Log.d(TAG, "removing obsolete package: " + app.packageName + "/" + app.userId);
+                removeAppWithoutCache(app);
+                cachedAppScope.remove(key);
+                continue;
+            }
+            try {
+                for (var modulePackageName : modulePackageNames) {
+                    if (!isModuleAvailable(modulePackageName, app.userId)) {
+                        // obsolete modules are removed by a full rebuild
+                        synchronized (cacheHandler) {
+                            lastScopeCacheTime = 0;
+                            requestScopeCacheTime = SystemClock.elapsedRealtime();
+                        }
+                        cacheScopes();
+                        return;
+                    }
+                    appScope.add(cachedModule.get(modulePackageName), modulePackageName.equals(app.packageName));
+                }
+            } catch (RemoteException e) {
+                Log.e(TAG, Log.getStackTraceString(e));
+            }
+            cachedAppScope.put(key, appScope);
+        }
+        if (!PackageService.isAlive()) {
+            Log.w(TAG, "pm is dead while caching. invalidating...");
+            clearCache();
+            return;
+        }
+        publishScopes();
+        Log.i(TAG, "updated scope of " + apps.size() + " apps in " + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+
+    private boolean isModuleAvailable(String modulePackageName, int userId) {
+        try {
+            return PackageService.isPackageAvailable(modulePackageName, userId, true) && cachedModule.containsKey(modulePackageName);
+        } catch (Throwable e) {
+            Log.w(TAG, "check package availability ", e);
+            return false;
+        }
+    }
+
+    private List<ProcessScope> getAssociatedProcessesOrEmpty(Application app) {
+        try {
+            return getAssociatedProcesses(app);
+        } catch (RemoteException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    // Merges the scope of all apps and indexes the cached modules into the next snapshot and
+    // publishes it at once
+    private synchronized void publishScopes() {
+        var scope = new HashMap<ProcessScope, List<Module>>();
+        for (var appScope : cachedAppScope.values()) {
+            appScope.modules.forEach((processScope, modules) ->
+                    scope.computeIfAbsent(processScope, ignored -> new ArrayList<>()).addAll(modules));
+        }
+        var modules = new HashMap<ProcessScope, Module[]>(scope.size() * 4 / 3 + 1);
+        var hookedUids = new IntIndex<Boolean>(scope.size());
+        scope.forEach((processScope, list) -> {
+            modules.put(processScope, list.toArray(new Module[0]));
+            hookedUids.putIfAbsent(processScope.uid, Boolean.TRUE);
         });
+        var cachedModules = new ArrayList<>(cachedModule.values());
+        var modulesByAppId = new IntIndex<Module>(cachedModules.size());
+        for (var module : cachedModules) {
+            modulesByAppId.putIfAbsent(module.appId, module);
+        }
+        var snapshot = new ScopeSnapshot(scopeSnapshot.generation + 1, Collections.unmodifiableMap(modules), hookedUids, modulesByAppId);
+        scopeSnapshot = snapshot;
+        Log.d(TAG, "published scope generation " + snapshot.generation + " of " + modules.size() + " processes");
+    }
+
+    /**
+     * The generation of the published scope, increased every time the scope is rebuilt or cleared.
+     */
+    public long getScopeGeneration() {
+        return scopeSnapshot.generation;
     }
 
     // This is called when a new process created, use the cached result
     public List<Module> getModulesForProcess(String processName, int uid) {
-        return isManager(uid) ? Collections.emptyList() : cachedScope.getOrDefault(new ProcessScope(processName, uid), Collections.emptyList());
+        if (isManager(uid)) return Collections.emptyList();
+        var modules = scopeSnapshot.modules.get(new ProcessScope(processName, uid));
+        return modules == null ? Collections.emptyList() : Arrays.asList(modules);
     }
 
     // This is called when a new process created, use the cached result
     public boolean shouldSkipProcess(ProcessScope scope) {
-        return !cachedScope.containsKey(scope) && !isManager(scope.uid);
+        return !scopeSnapshot.modules.containsKey(scope) && !isManager(scope.uid);
     }
 
     public boolean isUidHooked(int uid) {
-        return cachedScope.keySet().stream().reduce(false, (p, scope) -> p || scope.uid == uid, Boolean::logicalOr);
+        return scopeSnapshot.hookedUids.contains(uid);
     }
 
     @Nullable
     public List<Application> getModuleScope(String packageName) {
         if (packageName.equals("lspd")) return null;
-        try (Cursor cursor = db.query("scope INNER JOIN modules ON scope.mid = modules.mid", new String[]{"app_pkg_name", "user_id"},
-                "modules.module_pkg_name = ?", new String[]{packageName}, null, null, null)) {
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_MODULE_SCOPE, new String[]{packageName})) {
             if (cursor == null) {
                 return null;
             }
@@ -820,15 +989,12 @@ public class ConfigManager {
             return false;
         }
 
-        ContentValues values = new ContentValues();
-        values.put("module_pkg_name", packageName);
-        values.put("apk_path", apkPath);
         // insert or update in two step since insert or replace will change the autoincrement mid
-        int count = (int) db.insertWithOnConflict("modules", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+        int count = (int) dao.insertModule(packageName, apkPath);
         if (count < 0) {
             var cached = cachedModule.getOrDefault(packageName, null);
             if (force || cached == null || cached.apkPath == null || !cached.apkPath.equals(apkPath))
-                count = db.updateWithOnConflict("modules", values, "module_pkg_name=?", new String[]{packageName}, SQLiteDatabase.CONFLICT_IGNORE);
+                count = dao.updateModuleApkPath(packageName, apkPath);
             else
                 count = 0;
         }
@@ -849,12 +1015,7 @@ public class ConfigManager {
             Log.w(TAG, "get module id should not be called inside transaction");
             return -1;
         }
-        try (Cursor cursor = db.query("modules", new String[]{"mid"}, "module_pkg_name=?", new String[]{packageName}, null, null, null)) {
-            if (cursor == null) return -1;
-            if (cursor.getCount() != 1) return -1;
-            cursor.moveToFirst();
-            return cursor.getInt(cursor.getColumnIndexOrThrow("mid"));
-        }
+        return dao.getModuleId(packageName);
     }
 
     public boolean setModuleScope(String packageName, List<Application> scopes) throws RemoteException {
@@ -862,19 +1023,28 @@ public class ConfigManager {
         enableModule(packageName);
         int mid = getModuleId(packageName);
         if (mid == -1) return false;
-        executeInTransaction(() -> {
-            db.delete("scope", "mid = ?", new String[]{String.valueOf(mid)});
+        // only write the rows that changed
+        boolean changed = dao.executeInTransaction("set scope of " + packageName, () -> {
+            var removed = dao.getScope(mid);
+            var added = new HashSet<Pair<String, Integer>>();
             for (Application app : scopes) {
                 if (app.packageName.equals("system") && app.userId != 0) continue;
-                ContentValues values = new ContentValues();
-                values.put("mid", mid);
-                values.put("app_pkg_name", app.packageName);
-                values.put("user_id", app.userId);
-                db.insertWithOnConflict("scope", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                var row = new Pair<>(app.packageName, app.userId);
+                if (!removed.remove(row)) added.add(row);
+            }
+            for (var row : removed) {
+                dao.deleteScope(mid, row.first, row.second);
+            }
+            for (var row : added) {
+                dao.insertScope(mid, row.first, row.second);
             }
+            Log.d(TAG, "scope of " + packageName + ": " + added.size() + " added, " + removed.size() + " removed");
+            return !removed.isEmpty() || !added.isEmpty();
         });
-        // Called by manager, should be async
-        updateCaches(false);
+        if (changed) {
+            // Called by manager, should be async
+            updateCaches(false);
+        }
         return true;
     }
 
@@ -883,13 +1053,7 @@ public class ConfigManager {
         int mid = getModuleId(packageName);
         if (mid == -1) return false;
         if (scopePackageName.equals("system") && userId != 0) return false;
-        executeInTransaction(() -> {
-            ContentValues values = new ContentValues();
-            values.put("mid", mid);
-            values.put("app_pkg_name", scopePackageName);
-            values.put("user_id", userId);
-            db.insertWithOnConflict("scope", null, values, SQLiteDatabase.CONFLICT_IGNORE);
-        });
+        dao.insertScope(mid, scopePackageName, userId);
         // Called by xposed service, should be async
         updateCaches(false);
         return true;
@@ -900,9 +1064,7 @@ public class ConfigManager {
         int mid = getModuleId(packageName);
         if (mid == -1) return false;
         if (scopePackageName.equals("system") && userId != 0) return false;
-        executeInTransaction(() -> {
-            db.delete("scope", "mid = ? AND app_pkg_name = ? AND user_id = ?", new String[]{String.valueOf(mid), scopePackageName, String.valueOf(userId)});
-        });
+        dao.deleteScope(mid, scopePackageName, userId);
         // Called by xposed service, should be async
         updateCaches(false);
         return true;
@@ -910,7 +1072,7 @@ public class ConfigManager {
 
 
     public String[] enabledModules() {
-        return listModules("enabled");
+        return listModules(ConfigDao.SELECT_ENABLED_MODULES);
     }
 
     public boolean removeModule(String packageName) {
@@ -927,7 +1089,7 @@ public class ConfigManager {
 
     private boolean removeModuleWithoutCache(String packageName) {
         if (packageName.equals("lspd")) return false;
-        boolean res = executeInTransaction(() -> db.delete("modules", "module_pkg_name = ?", new String[]{packageName}) > 0);
+        boolean res = executeInTransaction(() -> dao.deleteModule(packageName));
         try {
             for (var user : UserService.getUsers()) {
                 removeModulePrefs(user.id, packageName);
@@ -942,7 +1104,7 @@ public class ConfigManager {
         if (module.packageName.equals("lspd")) return false;
         int mid = getModuleId(module.packageName);
         if (mid == -1) return false;
-        boolean res = executeInTransaction(() -> db.delete("scope", "mid = ? and user_id = ?", new String[]{String.valueOf(mid), String.valueOf(module.userId)}) > 0);
+        boolean res = executeInTransaction(() -> dao.deleteModuleScope(mid, module.userId));
         try {
             removeModulePrefs(module.userId, module.packageName);
         } catch (IOException e) {
@@ -952,17 +1114,12 @@ public class ConfigManager {
     }
 
     private boolean removeAppWithoutCache(Application app) {
-        return executeInTransaction(() -> db.delete("scope", "app_pkg_name = ? AND user_id=?",
-                new String[]{app.packageName, String.valueOf(app.userId)}) > 0);
+        return dao.deleteAppScope(app.packageName, app.userId);
     }
 
     public boolean disableModule(String packageName) {
         if (packageName.equals("lspd")) return false;
-        boolean changed = executeInTransaction(() -> {
-            ContentValues values = new ContentValues();
-            values.put("enabled", 0);
-            return db.update("modules", values, "module_pkg_name = ?", new String[]{packageName}) > 0;
-        });
+        boolean changed = executeInTransaction(() -> dao.setModuleEnabled(packageName, false));
         if (changed) {
             // called by manager, should be async
             updateCaches(false);
@@ -979,11 +1136,7 @@ public class ConfigManager {
         var modulePath = getModuleApkPath(pkgInfo.applicationInfo);
         if (modulePath == null) return false;
         boolean changed = updateModuleApkPath(packageName, modulePath, false);
-        changed = executeInTransaction(() -> {
-            ContentValues values = new ContentValues();
-            values.put("enabled", 1);
-            return db.update("modules", values, "module_pkg_name = ?", new String[]{packageName}) > 0;
-        }) || changed;
+        changed = executeInTransaction(() -> dao.setModuleEnabled(packageName, true)) || changed;
         if (changed) {
             // Called by manager, should be async
             updateCaches(false);
@@ -998,9 +1151,9 @@ public class ConfigManager {
         updateCaches(true);
     }
 
-    public void updateAppCache() {
+    public void updateAppCache(int uid, @Nullable String packageName) {
         // Called by oneway binder
-        cacheScopes();
+        cacheAppScopes(uid, packageName);
     }
 
     public void setVerboseLog(boolean on) {
@@ -1034,6 +1187,27 @@ public class ConfigManager {
         return logWatchdog;
     }
 
+    // only takes effect for processes started afterwards
+    public void setHookMetrics(boolean on) {
+        updateModulePrefs("lspd", 0, "config", "enable_hook_metrics", on);
+        hookMetrics = on;
+    }
+
+    public boolean hookMetrics() {
+        return hookMetrics;
+    }
+
+    // 0 disables sampling, only takes effect for processes started afterwards
+    public void setHookSamplingInterval(int interval) {
+        interval = Math.max(interval, 0);
+        updateModulePrefs("lspd", 0, "config", "hook_sampling_interval", interval);
+        hookSamplingInterval = interval;
+    }
+
+    public int hookSamplingInterval() {
+        return hookSamplingInterval;
+    }
+
     public void setDexObfuscate(boolean on) {
         updateModulePrefs("lspd", 0, "config", "enable_dex_obfuscate", on);
     }
@@ -1138,12 +1312,8 @@ public class ConfigManager {
         return path.toString();
     }
 
-    // this is slow, avoid using it
     public Module getModule(int uid) {
-        for (var module : cachedModule.values()) {
-            if (module.appId == uid % PER_USER_RANGE) return module;
-        }
-        return null;
+        return scopeSnapshot.modulesByAppId.get(uid % PER_USER_RANGE);
     }
 
     private void walkFileTree(Path rootDir, Consumer<Path> action) throws IOException {
@@ -1194,6 +1364,38 @@ public class ConfigManager {
         return result;
     }
 
+    /**
+     * The query plan of every query on the database, one query per paragraph with one plan step
+     * per line. Steps that scan a whole table or index are marked, as are queries that fail to
+     * plan.
+     */
+    public String explainQueryPlans() {
+        var sb = new StringBuilder();
+        int scans = 0;
+        for (var query : ConfigDao.QUERIES) {
+            sb.append(query).append('\n');
+            var args = new String[(int) query.chars().filter(c -> c == '?').count()];
+            Arrays.fill(args, "");
+            try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args)) {
+                int detailIdx = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    var detail = cursor.getString(detailIdx);
+                    sb.append('\t').append(detail);
+                    if (detail.startsWith("SCAN ")) {
+                        sb.append("\tFULL SCAN");
+                        scans++;
+                    }
+                    sb.append('\n');
+                }
+            } catch (SQLiteException e) {
+                sb.append("\tFAILED ").append(e.getMessage()).append('\n');
+            }
+            sb.append('\n');
+        }
+        sb.append(ConfigDao.QUERIES.length).append(" queries, ").append(scans).append(" full scans\n");
+        return sb.toString();
+    }
+
     public void setApi(String api) {
         this.api = api;
     }
@@ -1204,7 +1406,9 @@ public class ConfigManager {
 
     public void exportScopes(ZipOutputStream os) throws IOException {
         os.putNextEntry(new ZipEntry("scopes.txt"));
-        cachedScope.forEach((scope, modules) -> {
+        var snapshot = scopeSnapshot;
+        os.write(("generation " + snapshot.generation + "\n").getBytes(StandardCharsets.UTF_8));
+        snapshot.modules.forEach((scope, modules) -> {
             try {
                 os.write((scope.processName + "/" + scope.uid + "\n").getBytes(StandardCharsets.UTF_8));
                 for (var module : modules) {
@@ -1228,29 +1432,24 @@ public class ConfigManager {
     }
 
     public boolean getAutoInclude(String packageName) {
-        try (Cursor cursor = db.query("modules", new String[]{"auto_include"},
-               "module_pkg_name = ? and auto_include = 1", new String[]{packageName}, null, null, null, null)) {
+        try (Cursor cursor = db.rawQuery(ConfigDao.SELECT_AUTO_INCLUDE, new String[]{packageName})) {
             return cursor == null || cursor.moveToNext();
         }
     }
 
     public boolean setAutoInclude(String packageName, boolean enable) {
-        boolean changed = executeInTransaction(() -> {
-            ContentValues values = new ContentValues();
-            values.put("auto_include", enable ? 1 : 0);
-            return db.update("modules", values, "module_pkg_name = ?", new String[]{packageName}) > 0;
-        });
+        boolean changed = executeInTransaction(() -> dao.setModuleAutoInclude(packageName, enable));
         return true;
     }
 
     public String[] getAutoIncludeModules() {
-        return listModules("auto_include");
+        return listModules(ConfigDao.SELECT_AUTO_INCLUDE_MODULES);
     }
 
-    private String[] listModules(String column) {
-        try (Cursor cursor = db.query("modules", new String[]{"module_pkg_name"}, column + " = 1", null, null, null, null)) {
+    private String[] listModules(String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
             if (cursor == null) {
-                Log.e(TAG, "query " + column + " modules failed");
+                Log.e(TAG, "query modules failed: " + sql);
                 return null;
             }
             int modulePkgNameIdx = cursor.getColumnIndex("module_pkg_name");
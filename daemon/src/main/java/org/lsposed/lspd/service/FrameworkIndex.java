@@ -0,0 +1,288 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.service;
+
+import static org.lsposed.lspd.service.ServiceManager.TAG;
+
+import android.os.Build;
+import android.os.SharedMemory;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Executable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the index of the declared methods and constructors of framework classes that modules
+ * commonly look up, which app processes use instead of scanning those classes themselves. See
+ * {@code org.lsposed.lspd.util.FrameworkIndex} in core for the reader.
+ *
+ * <p>The index depends only on the boot image, so it is cached on disk, keyed by the build
+ * fingerprint and the size and modification time of every boot class path jar, which changes
+ * with mainline updates as well.
+ */
+final class FrameworkIndex {
+    // keep in sync with org.lsposed.lspd.util.FrameworkIndex
+    static final int MAGIC = 0x4c535049;
+    static final int VERSION = 1;
+    // members of this name are not indexed, e.g. because their signatures are ambiguous
+    static final int UNINDEXED = -1;
+
+    private static final Path cachePath = ConfigFileManager.basePath.resolve("cache").resolve("framework_index");
+
+    private static final String[] CLASSES = {
+            "java.lang.Object",
+            "java.lang.ClassLoader",
+            "android.app.Activity",
+            "android.app.ActivityThread",
+            "android.app.AlertDialog",
+            "android.app.Application",
+            "android.app.ApplicationPackageManager",
+            "android.app.ContextImpl",
+            "android.app.Dialog",
+            "android.app.Instrumentation",
+            "android.app.LoadedApk",
+            "android.app.Notification",
+            "android.app.Notification$Builder",
+            "android.app.NotificationManager",
+            "android.app.ResourcesManager",
+            "android.app.Service",
+            "android.app.SharedPreferencesImpl",
+            "android.content.BroadcastReceiver",
+            "android.content.ContentResolver",
+            "android.content.Context",
+            "android.content.ContextWrapper",
+            "android.content.Intent",
+            "android.content.pm.PackageManager",
+            "android.content.res.AssetManager",
+            "android.content.res.Resources",
+            "android.content.res.ResourcesImpl",
+            "android.content.res.TypedArray",
+            "android.os.Bundle",
+            "android.os.Handler",
+            "android.view.ContextThemeWrapper",
+            "android.view.LayoutInflater",
+            "android.view.View",
+            "android.view.ViewGroup",
+            "android.view.Window",
+            "android.view.WindowManagerGlobal",
+            "android.widget.ImageView",
+            "android.widget.TextView",
+            "android.widget.Toast",
+    };
+
+    private static SharedMemory index = null;
+
+    private FrameworkIndex() {
+    }
+
+    /**
+     * The index, read-only, or {@code null} if it could not be built.
+     */
+    static synchronized SharedMemory get() {
+        if (index != null) return index;
+        try {
+            var key = bootImageKey();
+            var bytes = readCache(key);
+            if (bytes == null) {
+                long start = System.nanoTime();
+                bytes = build();
+                Log.i(TAG, "framework index: " + bytes.length + " bytes built in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+                writeCache(key, bytes);
+            }
+            var memory = SharedMemory.create("framework_index", bytes.length);
+            var buffer = memory.mapReadWrite();
+            buffer.put(bytes);
+            SharedMemory.unmap(buffer);
+            memory.setProtect(OsConstants.PROT_READ);
+            index = memory;
+        } catch (IOException | ErrnoException e) {
+            Log.e(TAG, "framework index", e);
+        }
+        return index;
+    }
+
+    private static String bootImageKey() {
+        var sb = new StringBuilder(Build.FINGERPRINT);
+        var bootClassPath = System.getenv("BOOTCLASSPATH");
+        if (bootClassPath != null) {
+            for (var jar : bootClassPath.split(File.pathSeparator)) {
+                var file = new File(jar);
+                sb.append('\n').append(jar).append(':').append(file.length()).append(':').append(file.lastModified());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readCache(String key) {
+        try {
+            if (!Files.isRegularFile(cachePath)) return null;
+            var cached = Files.readAllBytes(cachePath);
+            var expected = key.getBytes(StandardCharsets.UTF_8);
+            if (cached.length < expected.length + 1 || cached[expected.length] != 0
+                    || !Arrays.equals(Arrays.copyOf(cached, expected.length), expected)) {
+                return null;
+            }
+            return Arrays.copyOfRange(cached, expected.length + 1, cached.length);
+        } catch (IOException e) {
+            Log.w(TAG, "read framework index cache", e);
+            return null;
+        }
+    }
+
+    private static void writeCache(String key, byte[] bytes) {
+        try {
+            Files.createDirectories(cachePath.getParent());
+            var tmp = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+            try (var os = Files.newOutputStream(tmp)) {
+                os.write(key.getBytes(StandardCharsets.UTF_8));
+                os.write(0);
+                os.write(bytes);
+            }
+            Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.w(TAG, "write framework index cache", e);
+        }
+    }
+
+    /**
+     * Layout, big endian:
+     * <pre>
+     * int magic, int version, int string count, int class count
+     * int[string count] string offsets
+     * (int name string, int record offset)[class count], sorted by class name
+     * strings: unsigned short byte length, UTF-8 bytes
+     * class records:
+     *   int name count, per name: int name string, int count or UNINDEXED, per member:
+     *     int parameter count, int[parameter count] parameter type strings
+     *   int constructor count or UNINDEXED, per constructor as above
+     * </pre>
+     * Members are listed in the order of {@link Class#getDeclaredMethods()}. Parameter types are
+     * binary names as returned by {@link Class#getName()}.
+     */
+    private static byte[] build() throws IOException {
+        var strings = new LinkedHashMap<String, Integer>();
+        var records = new TreeMap<String, byte[]>();
+        for (var className : CLASSES) {
+            Class<?> clazz;
+            try {
+                clazz = Class.forName(className, false, null);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // not on every Android version
+                continue;
+            }
+            var record = new ByteArrayOutputStream();
+            var out = new DataOutputStream(record);
+            var byName = new LinkedHashMap<String, List<Executable>>();
+            for (var method : clazz.getDeclaredMethods()) {
+                byName.computeIfAbsent(method.getName(), n -> new ArrayList<>(1)).add(method);
+            }
+            out.writeInt(byName.size());
+            for (var entry : byName.entrySet()) {
+                out.writeInt(intern(strings, entry.getKey()));
+                writeExecutables(out, strings, entry.getValue());
+            }
+            writeExecutables(out, strings, Arrays.asList(clazz.getDeclaredConstructors()));
+            intern(strings, className);
+            records.put(className, record.toByteArray());
+        }
+
+        var stringBytes = new ArrayList<byte[]>(strings.size());
+        for (var string : strings.keySet()) {
+            stringBytes.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        int offset = 16 + strings.size() * 4 + records.size() * 8;
+        var result = new ByteArrayOutputStream();
+        var out = new DataOutputStream(result);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.size());
+        out.writeInt(records.size());
+        for (var bytes : stringBytes) {
+            out.writeInt(offset);
+            offset += 2 + bytes.length;
+        }
+        for (var entry : records.entrySet()) {
+            out.writeInt(strings.get(entry.getKey()));
+            out.writeInt(offset);
+            offset += entry.getValue().length;
+        }
+        for (var bytes : stringBytes) {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        for (var record : records.values()) {
+            out.write(record);
+        }
+        return result.toByteArray();
+    }
+
+    private static void writeExecutables(DataOutputStream out, Map<String, Integer> strings, List<Executable> executables) throws IOException {
+        var signatures = new HashSet<List<String>>();
+        var parameterTypes = new ArrayList<String[]>(executables.size());
+        for (var executable : executables) {
+            String[] types;
+            try {
+                var classes = executable.getParameterTypes();
+                types = new String[classes.length];
+                for (int i = 0; i < classes.length; i++) types[i] = classes[i].getName();
+            } catch (LinkageError e) {
+                types = null;
+            }
+            // bridges share parameter types with their target, which a lookup by types cannot tell apart
+            if (types == null || !signatures.add(Arrays.asList(types))) {
+                out.writeInt(UNINDEXED);
+                return;
+            }
+            parameterTypes.add(types);
+        }
+        out.writeInt(parameterTypes.size());
+        for (var types : parameterTypes) {
+            out.writeInt(types.length);
+            for (var type : types) out.writeInt(intern(strings, type));
+        }
+    }
+
+    private static int intern(Map<String, Integer> strings, String string) {
+        var id = strings.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.put(string, id);
+        }
+        return id;
+    }
+}
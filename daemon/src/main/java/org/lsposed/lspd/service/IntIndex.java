@@ -0,0 +1,80 @@
+/*
+ * This file is part of LSPosed.
+ *
+ * LSPosed is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LSPosed is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LSPosed.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Copyright (C) 2026 LSPosed Contributors
+ */
+
+
+package org.lsposed.lspd.service;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys such as uids and app ids, with open addressing so that lookups
+ * neither box nor allocate. It is filled once and only read after it has been published.
+ */
+final class IntIndex<V> {
+    private static final int FREE = -1;
+
+    private final int[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    IntIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, FREE);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Maps {@code key} to {@code value} unless {@code key} is already mapped. Negative keys are
+     * ignored.
+     */
+    void putIfAbsent(int key, V value) {
+        if (key < 0) return;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) return;
+            if (keys[i] == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                return;
+            }
+        }
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        if (key < 0) return null;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) return (V) values[i];
+            if (keys[i] == FREE) return null;
+        }
+    }
+
+    boolean contains(int key) {
+        return get(key) != null;
+    }
+}
@@ -19,8 +19,10 @@
 
 package org.lsposed.lspd.service;
 
+import static org.lsposed.lspd.service.PackageService.PER_USER_RANGE;
 import static org.lsposed.lspd.service.ServiceManager.TAG;
 
+import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.ParcelFileDescriptor;
@@ -33,23 +35,78 @@ import androidx.annotation.NonNull;
 
 import org.lsposed.lspd.models.Module;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class LSPApplicationService extends ILSPApplicationService.Stub {
     final static int DEX_TRANSACTION_CODE = 1310096052;
     final static int OBFUSCATION_MAP_TRANSACTION_CODE = 724533732;
+    // keep in sync with HookMetrics.DUMP_TRANSACTION_CODE
+    final static int HOOK_METRICS_TRANSACTION_CODE = 1213220684;
+    // keep in sync with HookMetrics.SAMPLES_TRANSACTION_CODE
+    final static int HOOK_SAMPLES_TRANSACTION_CODE = 1213220685;
+    // keys of the startup config, keep in sync with ApplicationServiceClient
+    final static String HOOK_METRICS_KEY = "hookMetrics";
+    final static String HOOK_SAMPLING_INTERVAL_KEY = "hookSamplingInterval";
+    final static String FRAMEWORK_INDEX_KEY = "frameworkIndex";
+    // a frozen or busy process must not stall the whole dump
+    private final static long HOOK_METRICS_TIMEOUT_MS = 2000;
+    private final static ExecutorService hookMetricsExecutor = Executors.newCachedThreadPool();
     // key: <uid, pid>
     private final static Map<Pair<Integer, Integer>, ProcessInfo> processes = new ConcurrentHashMap<>();
+    // timelines are reported by app processes, so bound what they can make the daemon keep
+    private final static int MAX_TIMELINE_PACKAGES = 512;
+    private final static int MAX_TIMELINE_PHASES = 64;
+    private final static int MAX_PHASE_NAME = 127;
+    // key: package name, value: phases in the order they were first reported
+    private final static Map<String, Map<String, PhaseDurations>> startupTimelines = new ConcurrentHashMap<>();
+
+    // The most recent durations of one startup phase of a package
+    static class PhaseDurations {
+        private static final int CAPACITY = 32;
+
+        private final long[] durations = new long[CAPACITY];
+        private long runs;
+
+        void add(long duration) {
+            durations[(int) (runs++ % CAPACITY)] = duration;
+        }
+
+        void dump(StringBuilder sb) {
+            var recent = Arrays.copyOf(durations, (int) Math.min(runs, CAPACITY));
+            Arrays.sort(recent);
+            sb.append(runs).append('\t')
+                    .append(percentile(recent, 0.5)).append('\t')
+                    .append(percentile(recent, 0.95)).append('\t')
+                    .append(durations[(int) ((runs - 1) % CAPACITY)]);
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            // nearest rank
+            return sorted[Math.max((int) Math.ceil(p * sorted.length) - 1, 0)];
+        }
+    }
 
     static class ProcessInfo implements DeathRecipient {
         final int uid;
         final int pid;
         final String processName;
         final IBinder heartBeat;
+        volatile IBinder hookMetricsProvider;
 
         ProcessInfo(int uid, int pid, String processName, IBinder heartBeat) throws RemoteException {
             this.uid = uid;
@@ -157,6 +214,191 @@ public class LSPApplicationService extends ILSPApplicationService.Stub {
         return ConfigManager.getInstance().getManagerApk();
     }
 
+    @Override
+    public Bundle getStartupConfig() throws RemoteException {
+        ensureRegistered();
+        var config = new Bundle();
+        config.putBoolean(HOOK_METRICS_KEY, ConfigManager.getInstance().hookMetrics());
+        config.putInt(HOOK_SAMPLING_INTERVAL_KEY, ConfigManager.getInstance().hookSamplingInterval());
+        var frameworkIndex = FrameworkIndex.get();
+        if (frameworkIndex != null) config.putParcelable(FRAMEWORK_INDEX_KEY, frameworkIndex);
+        return config;
+    }
+
+    @Override
+    public void registerHookMetricsProvider(IBinder provider) throws RemoteException {
+        ensureRegistered().hookMetricsProvider = provider;
+    }
+
+    @Override
+    public void reportStartupTimeline(String packageName, String[] phases, long[] offsets, long[] durations) throws RemoteException {
+        var processInfo = ensureRegistered();
+        if (packageName == null || phases == null || offsets == null || durations == null
+                || phases.length != offsets.length || phases.length != durations.length) return;
+        if (!isPackageOfProcess(packageName, processInfo)) {
+            Log.w(TAG, processInfo + " reported the startup timeline of " + packageName);
+            return;
+        }
+        var sb = new StringBuilder("startup timeline of ").append(processInfo.processName).append(':');
+        for (int i = 0; i < Math.min(phases.length, MAX_TIMELINE_PHASES); i++) {
+            sb.append("\n  +").append(offsets[i] / 1000000).append(" ms ")
+                    .append(phases[i]).append(": ").append(durations[i] / 1000000).append(" ms");
+        }
+        Log.d(TAG, sb.toString());
+        // phases repeating within one report, e.g. once per loaded package, count as one run
+        var reported = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < phases.length; i++) {
+            if (phases[i] == null || phases[i].length() > MAX_PHASE_NAME || durations[i] < 0) continue;
+            reported.merge(phases[i], durations[i], Long::sum);
+        }
+        var timeline = startupTimelines.get(packageName);
+        if (timeline == null) {
+            if (startupTimelines.size() >= MAX_TIMELINE_PACKAGES) {
+                Log.w(TAG, "too many startup timelines, dropping the one of " + packageName);
+                return;
+            }
+            timeline = startupTimelines.computeIfAbsent(packageName, p -> new LinkedHashMap<>());
+        }
+        synchronized (timeline) {
+            for (var entry : reported.entrySet()) {
+                var phase = timeline.get(entry.getKey());
+                if (phase == null) {
+                    if (timeline.size() >= MAX_TIMELINE_PHASES) continue;
+                    phase = new PhaseDurations();
+                    timeline.put(entry.getKey(), phase);
+                }
+                phase.add(entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isPackageOfProcess(String packageName, ProcessInfo processInfo) {
+        // the framework reports itself as system
+        if (packageName.equals("system")) packageName = "android";
+        try {
+            var info = PackageService.getApplicationInfo(packageName, 0, processInfo.uid / PER_USER_RANGE);
+            return info != null && info.uid == processInfo.uid;
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * One line per (package, startup phase), tab separated: package, phase, reported runs, and
+     * the p50, p95 and last duration in ns over the most recent runs.
+     */
+    public String dumpStartupTimelines() {
+        var sb = new StringBuilder("package\tphase\truns\tp50_ns\tp95_ns\tlast_ns\n");
+        var packages = new ArrayList<>(startupTimelines.keySet());
+        Collections.sort(packages);
+        for (var packageName : packages) {
+            var timeline = startupTimelines.get(packageName);
+            synchronized (timeline) {
+                for (var entry : timeline.entrySet()) {
+                    sb.append(packageName).append('\t').append(entry.getKey()).append('\t');
+                    entry.getValue().dump(sb);
+                    sb.append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String queryHookMetrics(IBinder provider, int code) throws RemoteException {
+        var data = Parcel.obtain();
+        var reply = Parcel.obtain();
+        try {
+            if (!provider.transact(code, data, reply, 0)) return null;
+            return reply.readString();
+        } finally {
+            data.recycle();
+            reply.recycle();
+        }
+    }
+
+    private List<String> collectHookMetrics(int code) {
+        var lines = new ArrayList<String>();
+        var queried = new ArrayList<ProcessInfo>();
+        var tasks = new ArrayList<Callable<String>>();
+        for (var processInfo : processes.values()) {
+            var provider = processInfo.hookMetricsProvider;
+            if (provider == null) continue;
+            queried.add(processInfo);
+            tasks.add(() -> queryHookMetrics(provider, code));
+        }
+        if (tasks.isEmpty()) return lines;
+        List<Future<String>> results;
+        try {
+            results = hookMetricsExecutor.invokeAll(tasks, HOOK_METRICS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return lines;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            var result = results.get(i);
+            if (result.isCancelled()) {
+                Log.w(TAG, "dump hook metrics of " + queried.get(i) + " timed out");
+                continue;
+            }
+            try {
+                var dump = result.get();
+                if (dump == null || dump.isEmpty()) continue;
+                lines.addAll(Arrays.asList(dump.split("\n")));
+            } catch (ExecutionException e) {
+                Log.w(TAG, "dump hook metrics of " + queried.get(i), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return lines;
+    }
+
+    // the dumps come from app processes, so a malformed field only drops its line
+    private static long parseField(String[] fields, int index) {
+        if (index >= fields.length) return -1;
+        try {
+            var value = Long.parseLong(fields[index]);
+            return value < 0 ? -1 : value;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String dumpHookMetrics() {
+        // <total_ns, line>
+        var lines = new ArrayList<Pair<Long, String>>();
+        for (var line : collectHookMetrics(HOOK_METRICS_TRANSACTION_CODE)) {
+            var fields = line.split("\t", 3);
+            var total = parseField(fields, 0);
+            if (fields.length < 3 || total < 0) continue;
+            lines.add(new Pair<>(total, line));
+        }
+        lines.sort(Comparator.comparingLong((Pair<Long, String> line) -> line.first).reversed());
+        var sb = new StringBuilder("total_ns\tcalls\tp50_ns\tp99_ns\tmodule\tprocess\tmethod\thistogram\n");
+        for (var line : lines) {
+            sb.append(line.second).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drains the hook samples of all processes as collapsed stacks, one {@code stack value} line
+     * per stack, weighted by wall or CPU nanoseconds. Processes sharing a name are merged.
+     */
+    public String dumpHookSamples(boolean cpu) {
+        var totals = new HashMap<String, Long>();
+        for (var line : collectHookMetrics(HOOK_SAMPLES_TRANSACTION_CODE)) {
+            var fields = line.split("\t");
+            var value = parseField(fields, cpu ? 2 : 1);
+            if (fields.length < 3 || fields[0].isEmpty() || value < 0) continue;
+            totals.merge(fields[0], value, Long::sum);
+        }
+        var sb = new StringBuilder();
+        totals.forEach((stack, value) -> sb.append(stack).append(' ').append(value).append('\n'));
+        return sb.toString();
+    }
+
     public boolean hasRegister(int uid, int pid) {
         return processes.containsKey(new Pair<>(uid, pid));
     }
@@ -56,6 +56,7 @@ import org.lsposed.lspd.util.Utils;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -566,4 +567,60 @@ public class LSPManagerService extends ILSPManagerService.Stub {
     public boolean getAutoInclude(String packageName) {
         return ConfigManager.getInstance().getAutoInclude(packageName);
     }
+
+    @Override
+    public boolean isHookMetricsEnabled() {
+        return ConfigManager.getInstance().hookMetrics();
+    }
+
+    @Override
+    public void setHookMetrics(boolean enabled) {
+        ConfigManager.getInstance().setHookMetrics(enabled);
+    }
+
+    @Override
+    public void getHookMetrics(ParcelFileDescriptor fd) {
+        try (fd; var os = new FileOutputStream(fd.getFileDescriptor())) {
+            os.write(ServiceManager.getApplicationService().dumpHookMetrics().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "dump hook metrics", e);
+        }
+    }
+
+    @Override
+    public int getHookSamplingInterval() {
+        return ConfigManager.getInstance().hookSamplingInterval();
+    }
+
+    @Override
+    public void setHookSamplingInterval(int interval) {
+        ConfigManager.getInstance().setHookSamplingInterval(interval);
+    }
+
+    @Override
+    public void getHookSamples(ParcelFileDescriptor fd, boolean cpu) {
+        try (fd; var os = new FileOutputStream(fd.getFileDescriptor())) {
+            os.write(ServiceManager.getApplicationService().dumpHookSamples(cpu).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "dump hook samples", e);
+        }
+    }
+
+    @Override
+    public void getStartupTimelines(ParcelFileDescriptor fd) {
+        try (fd; var os = new FileOutputStream(fd.getFileDescriptor())) {
+            os.write(ServiceManager.getApplicationService().dumpStartupTimelines().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "dump startup timelines", e);
+        }
+    }
+
+    @Override
+    public void getQueryPlans(ParcelFileDescriptor fd) {
+        try (fd; var os = new FileOutputStream(fd.getFileDescriptor())) {
+            os.write(ConfigManager.getInstance().explainQueryPlans().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "dump query plans", e);
+        }
+    }
 }
@@ -171,7 +171,7 @@ public class LSPosedService extends ILSPosedService.Stub {
                 } else {
                     if (configManager.isUidHooked(uid)) {
                         // it will automatically remove obsolete app from database
-                        configManager.updateAppCache();
+                        configManager.updateAppCache(uid, moduleName);
                     }
                     if (intentAction.equals(Intent.ACTION_PACKAGE_ADDED) && !intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
                         for (String xposedModule : configManager.getAutoIncludeModules()) {
@@ -205,7 +205,7 @@ public class LSPosedService extends ILSPosedService.Stub {
                     ConfigManager.getInstance().updateCache();
                 } else if (ConfigManager.getInstance().isUidHooked(uid)) {
                     // it will auto remove obsolete scope from database
-                    ConfigManager.getInstance().updateAppCache();
+                    ConfigManager.getInstance().updateAppCache(uid, moduleName);
                 }
             }
         }
@@ -0,0 +1,57 @@
+package sun.misc;
+
+import java.lang.reflect.Field;
+
+public final class Unsafe {
+    public long objectFieldOffset(Field field) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public native int getInt(Object obj, long offset);
+
+    public native void putInt(Object obj, long offset, int newValue);
+
+    public native int getIntVolatile(Object obj, long offset);
+
+    public native void putIntVolatile(Object obj, long offset, int newValue);
+
+    public native long getLong(Object obj, long offset);
+
+    public native void putLong(Object obj, long offset, long newValue);
+
+    public native long getLongVolatile(Object obj, long offset);
+
+    public native void putLongVolatile(Object obj, long offset, long newValue);
+
+    public native Object getObject(Object obj, long offset);
+
+    public native void putObject(Object obj, long offset, Object newValue);
+
+    public native Object getObjectVolatile(Object obj, long offset);
+
+    public native void putObjectVolatile(Object obj, long offset, Object newValue);
+
+    public native boolean getBoolean(Object obj, long offset);
+
+    public native void putBoolean(Object obj, long offset, boolean newValue);
+
+    public native byte getByte(Object obj, long offset);
+
+    public native void putByte(Object obj, long offset, byte newValue);
+
+    public native char getChar(Object obj, long offset);
+
+    public native void putChar(Object obj, long offset, char newValue);
+
+    public native short getShort(Object obj, long offset);
+
+    public native void putShort(Object obj, long offset, short newValue);
+
+    public native float getFloat(Object obj, long offset);
+
+    public native void putFloat(Object obj, long offset, float newValue);
+
+    public native double getDouble(Object obj, long offset);
+
+    public native void putDouble(Object obj, long offset, double newValue);
+}
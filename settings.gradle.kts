@@ -29,6 +29,7 @@ include(
     ":apache",
     ":app",
     ":axml",
+    ":benchmark",
     ":core",
     ":daemon",
     ":dex2oat",